@@ -0,0 +1,23 @@
+package com.hmdp.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * 方法成功返回后删除缓存, 缓存key为 prefix + key 表达式的值
+ * 处于事务中时在提交后删除, 并延迟再删一次, 之后发布 {@link com.hmdp.event.CacheChangeEvent}
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface HmdpCacheEvict {
+
+    /**
+     * key前缀, 例如 cache:shop:
+     */
+    String prefix();
+
+    /**
+     * SpEL 表达式, 计算key中前缀之后的部分, 默认取第一个参数
+     */
+    String key() default "#p0";
+}
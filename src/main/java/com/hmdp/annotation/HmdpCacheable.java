@@ -0,0 +1,30 @@
+package com.hmdp.annotation;
+
+import java.lang.annotation.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 方法返回值缓存到redis, 缓存key为 prefix + key 表达式的值
+ * 方法本身作为回源逻辑, 经由 {@link com.hmdp.utils.CacheClient} 执行
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface HmdpCacheable {
+
+    /**
+     * key前缀, 例如 cache:shop:
+     */
+    String prefix();
+
+    /**
+     * SpEL 表达式, 计算key中前缀之后的部分, 默认取第一个参数
+     */
+    String key() default "#p0";
+
+    CacheStrategy strategy() default CacheStrategy.PASS_THROUGH;
+
+    long ttl() default 30L;
+
+    TimeUnit unit() default TimeUnit.MINUTES;
+}
@@ -0,0 +1,94 @@
+package com.hmdp.aspect;
+
+import com.hmdp.annotation.HmdpCacheEvict;
+import com.hmdp.annotation.HmdpCacheable;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidator;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.context.expression.MethodBasedEvaluationContext;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * {@link HmdpCacheable} / {@link HmdpCacheEvict} 的切面实现
+ * 被注解的方法作为回源逻辑交给 {@link CacheClient}, 自动获得空值缓存、TTL抖动、热点本地缓存等保护
+ * 缓存删除交给 {@link CacheInvalidator}, 在事务提交后执行并延迟双删
+ */
+@Aspect
+@Component
+public class CacheAspect {
+
+    private final ExpressionParser parser = new SpelExpressionParser();
+    private final ParameterNameDiscoverer nameDiscoverer = new DefaultParameterNameDiscoverer();
+    private final Map<String, Expression> expressions = new ConcurrentHashMap<>();
+
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    @Around("@annotation(cacheable)")
+    public Object cacheable(ProceedingJoinPoint pjp, HmdpCacheable cacheable) {
+        Method method = ((MethodSignature) pjp.getSignature()).getMethod();
+        Object id = evalKey(cacheable.key(), method, pjp.getArgs(), pjp.getTarget());
+        if (id == null) {
+            // 无法确定key时不走缓存
+            return proceed(pjp);
+        }
+        Type type = method.getGenericReturnType();
+        Function<Object, Object> dbFallback = ignored -> proceed(pjp);
+        switch (cacheable.strategy()) {
+            case MUTEX:
+                return cacheClient.queryWithMutex(cacheable.prefix(), id, type, dbFallback, cacheable.ttl(), cacheable.unit());
+            case LOGICAL_EXPIRE:
+                return cacheClient.queryWithLogicalExpire(cacheable.prefix(), id, type, dbFallback, cacheable.ttl(), cacheable.unit());
+            default:
+                return cacheClient.queryWithPassThrough(cacheable.prefix(), id, type, dbFallback, cacheable.ttl(), cacheable.unit());
+        }
+    }
+
+    @AfterReturning("@annotation(evict)")
+    public void evict(JoinPoint jp, HmdpCacheEvict evict) {
+        Method method = ((MethodSignature) jp.getSignature()).getMethod();
+        Object id = evalKey(evict.key(), method, jp.getArgs(), jp.getTarget());
+        if (id == null) {
+            return;
+        }
+        Object target = jp.getTarget();
+        Class<?> entityType = target instanceof ServiceImpl ? ((ServiceImpl<?, ?>) target).getEntityClass() : null;
+        cacheInvalidator.invalidate(evict.prefix() + id, entityType, id);
+    }
+
+    private Object evalKey(String key, Method method, Object[] args, Object target) {
+        Expression expression = expressions.computeIfAbsent(key, parser::parseExpression);
+        MethodBasedEvaluationContext context = new MethodBasedEvaluationContext(target, method, args, nameDiscoverer);
+        return expression.getValue(context);
+    }
+
+    private static Object proceed(ProceedingJoinPoint pjp) {
+        try {
+            return pjp.proceed();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
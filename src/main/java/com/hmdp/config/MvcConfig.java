@@ -1,7 +1,13 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.HttpCacheFilter;
+import com.hmdp.utils.HttpResponseCache;
 import com.hmdp.utils.LoginInterceptor;
 import com.hmdp.utils.RefresgTokenInterceptor;
+import com.hmdp.utils.UvCounter;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
@@ -14,6 +20,24 @@ public class MvcConfig implements WebMvcConfigurer {
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CacheMetrics cacheMetrics;
+    @Resource
+    private HttpResponseCache httpResponseCache;
+    @Resource
+    private UvCounter uvCounter;
+
+    /**
+     * 店铺、店铺类型、优惠券列表接口的 ETag 缓存, 命中时不进入 DispatcherServlet
+     */
+    @Bean
+    public FilterRegistrationBean<HttpCacheFilter> httpCacheFilter() {
+        FilterRegistrationBean<HttpCacheFilter> registration =
+                new FilterRegistrationBean<>(new HttpCacheFilter(httpResponseCache, uvCounter));
+        registration.addUrlPatterns("/shop/*", "/shop-type/list", "/voucher/list/*");
+        return registration;
+    }
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         registry.addInterceptor(new LoginInterceptor())
@@ -22,13 +46,14 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/user/login",
                         "/shop/**",
                         "/voucher/**",
-                        "/shop-type/**",
+                        "/shop-type/list",
                         "/upload/**",
                         "/blog/hot",
+                        "/blog/hot/scroll",
                         "/blog/search/**",
                         "/upload/**"
                 ).order(1);
-        registry.addInterceptor(new RefresgTokenInterceptor(stringRedisTemplate))
+        registry.addInterceptor(new RefresgTokenInterceptor(stringRedisTemplate, cacheMetrics))
                 .addPathPatterns("/**").order(0);
     }
 }
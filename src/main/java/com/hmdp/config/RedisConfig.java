@@ -0,0 +1,47 @@
+package com.hmdp.config;
+
+import com.hmdp.job.ShopIndexSync;
+import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.HttpResponseCache;
+import com.hmdp.utils.LocalCache;
+import com.hmdp.utils.RedisConstants;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+
+@Configuration
+public class RedisConfig {
+
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                       LocalCache localCache,
+                                                                       HttpResponseCache httpResponseCache,
+                                                                       IShopTypeService shopTypeService,
+                                                                       ShopIndexSync shopIndexSync) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        // 其他节点删除缓存时,同步摘除本地副本和接口响应
+        container.addMessageListener((message, pattern) -> {
+            String key = new String(message.getBody(), StandardCharsets.UTF_8);
+            localCache.invalidate(key);
+            httpResponseCache.invalidate(key);
+        }, new ChannelTopic(RedisConstants.CACHE_INVALIDATE_CHANNEL));
+        // 计数变化, 只摘除接口响应, 不影响热点的本地副本
+        container.addMessageListener(
+                (message, pattern) -> httpResponseCache.invalidate(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(RedisConstants.RESPONSE_INVALIDATE_CHANNEL));
+        // 店铺类型版本变更, 比对版本后重建本节点快照
+        container.addMessageListener(
+                (message, pattern) -> shopTypeService.checkTypeListVersion(),
+                new ChannelTopic(RedisConstants.SHOP_TYPE_VERSION_CHANNEL));
+        // 店铺变更, 更新本节点的坐标、名称索引
+        container.addMessageListener(
+                (message, pattern) -> shopIndexSync.apply(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(RedisConstants.SHOP_CHANGE_CHANNEL));
+        return container;
+    }
+}
@@ -1,9 +1,12 @@
 package com.hmdp.controller;
 
 
-import org.springframework.web.bind.annotation.RequestMapping;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.BlogComments;
+import com.hmdp.service.IBlogCommentsService;
+import org.springframework.web.bind.annotation.*;
 
-import org.springframework.web.bind.annotation.RestController;
+import javax.annotation.Resource;
 
 /**
  * <p>
@@ -17,4 +20,37 @@ import org.springframework.web.bind.annotation.RestController;
 @RequestMapping("/blog-comments")
 public class BlogCommentsController {
 
+    // 与 tb_blog_comments.content 的长度一致
+    private static final int MAX_CONTENT_LENGTH = 255;
+
+    @Resource
+    private IBlogCommentsService blogCommentsService;
+
+    /**
+     * 发表评论或回复
+     * @param comment blogId、content, 回复时还需要 parentId(所属一级评论) 和 answerId(回复的评论)
+     * @return 评论id
+     */
+    @PostMapping
+    public Result saveComment(@RequestBody BlogComments comment) {
+        if (comment.getBlogId() == null || comment.getContent() == null || comment.getContent().trim().isEmpty()) {
+            return Result.fail("评论内容不能为空");
+        }
+        if (comment.getContent().length() > MAX_CONTENT_LENGTH) {
+            return Result.fail("评论内容过长");
+        }
+        return blogCommentsService.saveComment(comment);
+    }
+
+    /**
+     * 滚动查询博文的评论, 每条一级评论附带全部回复
+     * @param blogId 博文id
+     * @param lastId 上一页返回的 lastId, 第一页不传
+     * @return 评论列表及下一页游标
+     */
+    @GetMapping("/of/blog/{blogId}")
+    public Result queryComments(@PathVariable("blogId") Long blogId,
+                                @RequestParam(value = "lastId", required = false) Long lastId) {
+        return blogCommentsService.queryComments(blogId, lastId);
+    }
 }
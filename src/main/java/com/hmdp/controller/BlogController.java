@@ -1,19 +1,16 @@
 package com.hmdp.controller;
 
 
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
-import com.hmdp.entity.User;
 import com.hmdp.service.IBlogService;
-import com.hmdp.service.IUserService;
-import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.UvCounter;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
-import java.util.List;
+import javax.servlet.http.HttpServletRequest;
 
 /**
  * <p>
@@ -30,7 +27,7 @@ public class BlogController {
     @Resource
     private IBlogService blogService;
     @Resource
-    private IUserService userService;
+    private UvCounter uvCounter;
 
     @PostMapping
     public Result saveBlog(@RequestBody Blog blog) {
@@ -38,46 +35,90 @@ public class BlogController {
         UserDTO user = UserHolder.getUser();
         blog.setUserId(user.getId());
         // 保存探店博文
-        blogService.save(blog);
-        // 返回id
-        return Result.ok(blog.getId());
+        return blogService.saveBlog(blog);
     }
 
+    @GetMapping("/{id}")
+    public Result queryBlogById(@PathVariable("id") Long id, HttpServletRequest request) {
+        Result result = blogService.queryBlogById(id);
+        if (Boolean.TRUE.equals(result.getSuccess())) {
+            // 只记录存在的博文
+            uvCounter.record(UvCounter.Target.BLOG, id, UvCounter.visitorOf(request));
+        }
+        return result;
+    }
+
+    /**
+     * 点赞, 已点赞时取消
+     * @param id 博文id
+     * @return 无
+     */
     @PutMapping("/like/{id}")
     public Result likeBlog(@PathVariable("id") Long id) {
-        // 修改点赞数量
-        blogService.update()
-                .setSql("liked = liked + 1").eq("id", id).update();
-        return Result.ok();
+        return blogService.likeBlog(id);
+    }
+
+    /**
+     * 最早点赞的5个用户
+     * @param id 博文id
+     * @return 用户列表
+     */
+    @GetMapping("/likes/{id}")
+    public Result queryBlogLikes(@PathVariable("id") Long id) {
+        return blogService.queryBlogLikes(id);
     }
 
     @GetMapping("/of/me")
     public Result queryMyBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
         // 获取登录用户
         UserDTO user = UserHolder.getUser();
-        // 根据用户查询
-        Page<Blog> page = blogService.query()
-                .eq("user_id", user.getId()).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 获取当前页数据
-        List<Blog> records = page.getRecords();
-        return Result.ok(records);
+        return blogService.queryMyBlog(user.getId(), current);
+    }
+
+    /**
+     * 滚动查询我的博文
+     * @param lastId 上一页返回的 lastId, 第一页不传
+     * @return 博文列表及下一页游标
+     */
+    @GetMapping("/of/me/scroll")
+    public Result scrollMyBlog(@RequestParam(value = "lastId", required = false) Long lastId) {
+        UserDTO user = UserHolder.getUser();
+        return blogService.scrollMyBlog(user.getId(), lastId);
+    }
+
+    /**
+     * 滚动查询关注的人发布的博文
+     * @param lastId 上一页返回的 minTime, 第一页不传
+     * @param offset 上一页返回的 offset
+     * @return 博文列表及下一页游标
+     */
+    @GetMapping("/of/follow")
+    public Result queryBlogOfFollow(
+            @RequestParam(value = "lastId", required = false) Long lastId,
+            @RequestParam(value = "offset", defaultValue = "0") Integer offset
+    ) {
+        UserDTO user = UserHolder.getUser();
+        return blogService.queryBlogOfFollow(user.getId(), lastId, offset);
     }
 
     @GetMapping("/hot")
     public Result queryHotBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
-        // 根据用户查询
-        Page<Blog> page = blogService.query()
-                .orderByDesc("liked")
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 获取当前页数据
-        List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog ->{
-            Long userId = blog.getUserId();
-            User user = userService.getById(userId);
-            blog.setName(user.getNickName());
-            blog.setIcon(user.getIcon());
-        });
-        return Result.ok(records);
+        return blogService.queryHotBlog(current);
+    }
+
+    /**
+     * 按热度滚动查询热门博文
+     * @param max 上一页的最小分数, 第一页不传
+     * @param offset 上一页返回的 offset
+     * @param lastId 上一页返回的 lastId
+     * @return 博文列表及下一页游标
+     */
+    @GetMapping("/hot/scroll")
+    public Result scrollHotBlog(
+            @RequestParam(value = "max", required = false) Long max,
+            @RequestParam(value = "offset", defaultValue = "0") Integer offset,
+            @RequestParam(value = "lastId", required = false) Long lastId
+    ) {
+        return blogService.scrollHotBlog(max, offset, lastId);
     }
 }
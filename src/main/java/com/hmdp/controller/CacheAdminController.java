@@ -0,0 +1,189 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.job.BlogHotRankBuilder;
+import com.hmdp.job.CacheWarmer;
+import com.hmdp.job.FeedFanout;
+import com.hmdp.job.FollowSetRebuilder;
+import com.hmdp.job.ShopGeoLoader;
+import com.hmdp.job.ShopNameIndexer;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.CacheRebuildScheduler;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.HttpResponseCache;
+import com.hmdp.utils.UvCounter;
+import com.hmdp.utils.WriteBehindCounter;
+import org.springframework.web.bind.annotation.*;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 缓存运维接口
+ * </p>
+ */
+@RestController
+@RequestMapping("/admin/cache")
+public class CacheAdminController {
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+    @Resource
+    private CacheWarmer cacheWarmer;
+    @Resource
+    private CacheRebuildScheduler rebuildScheduler;
+    @Resource
+    private HttpResponseCache httpResponseCache;
+    @Resource
+    private ShopGeoLoader shopGeoLoader;
+    @Resource
+    private WriteBehindCounter writeBehindCounter;
+    @Resource
+    private BlogHotRankBuilder blogHotRankBuilder;
+    @Resource
+    private FeedFanout feedFanout;
+    @Resource
+    private FollowSetRebuilder followSetRebuilder;
+    @Resource
+    private ShopNameIndexer shopNameIndexer;
+    @Resource
+    private UvCounter uvCounter;
+
+    /**
+     * 查询各key前缀的缓存指标
+     * @return 前缀 -> 指标
+     */
+    @GetMapping("/stats")
+    public Result stats() {
+        return Result.ok(cacheMetrics.snapshot());
+    }
+
+    /**
+     * 查询本节点当前的热点key
+     * @return 热点key及估计访问量
+     */
+    @GetMapping("/hot-keys")
+    public Result hotKeys() {
+        return Result.ok(hotKeyDetector.getHotKeys());
+    }
+
+    /**
+     * 查询缓存重建调度器的队列深度与重建耗时
+     * @return 调度器状态
+     */
+    @GetMapping("/rebuild")
+    public Result rebuildStats() {
+        return Result.ok(rebuildScheduler.stats());
+    }
+
+    /**
+     * 查询接口响应缓存的条目数与 304 命中情况
+     * @return 响应缓存状态
+     */
+    @GetMapping("/http")
+    public Result httpStats() {
+        return Result.ok(httpResponseCache.stats());
+    }
+
+    /**
+     * 查询计数写回的次数与失败情况
+     * @return 计数写回状态
+     */
+    @GetMapping("/counters")
+    public Result counterStats() {
+        return Result.ok(writeBehindCounter.stats());
+    }
+
+    /**
+     * 查询博文推送的次数、耗时与吞吐量
+     * @return 推送统计
+     */
+    @GetMapping("/feed")
+    public Result feedStats() {
+        return Result.ok(feedFanout.stats());
+    }
+
+    /**
+     * 查询访客记录的队列积压与写入情况
+     * @return 访客统计状态
+     */
+    @GetMapping("/uv")
+    public Result uvStats() {
+        return Result.ok(uvCounter.stats());
+    }
+
+    /**
+     * 开始预热店铺及店铺类型缓存
+     * @return 当前预热进度
+     */
+    @PostMapping("/warm")
+    public Result warm() {
+        if (!cacheWarmer.start()) {
+            return Result.fail("预热正在进行中");
+        }
+        return Result.ok(cacheWarmer.progress());
+    }
+
+    /**
+     * 查询预热进度与吞吐
+     * @return 预热进度
+     */
+    @GetMapping("/warm")
+    public Result warmProgress() {
+        return Result.ok(cacheWarmer.progress());
+    }
+
+    /**
+     * 重新导入店铺坐标到 GEO
+     * @return 导入的店铺数
+     */
+    @PostMapping("/geo")
+    public Result loadGeo() {
+        long loaded = shopGeoLoader.load();
+        if (loaded < 0) {
+            return Result.fail("坐标导入正在进行中");
+        }
+        return Result.ok(loaded);
+    }
+
+    /**
+     * 后台重建店铺名称索引
+     * @return 无
+     */
+    @PostMapping("/search-index")
+    public Result rebuildSearchIndex() {
+        if (!shopNameIndexer.start()) {
+            return Result.fail("名称索引正在重建");
+        }
+        return Result.ok();
+    }
+
+    /**
+     * 从数据库重建热门博文排行
+     * @return 写入排行的博文数
+     */
+    @PostMapping("/blog-hot")
+    public Result rebuildBlogHot() {
+        long total = blogHotRankBuilder.rebuild();
+        if (total < 0) {
+            return Result.fail("热门排行正在重建");
+        }
+        return Result.ok(total);
+    }
+
+    /**
+     * 从 tb_follow 重建关注集合
+     * @return 重建的关注关系数
+     */
+    @PostMapping("/follows")
+    public Result rebuildFollows() {
+        long total = followSetRebuilder.rebuild();
+        if (total < 0) {
+            return Result.fail("关注集合正在重建");
+        }
+        return Result.ok(total);
+    }
+}
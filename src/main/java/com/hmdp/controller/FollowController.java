@@ -1,9 +1,12 @@
 package com.hmdp.controller;
 
 
-import org.springframework.web.bind.annotation.RequestMapping;
+import com.hmdp.dto.Result;
+import com.hmdp.service.IFollowService;
+import org.springframework.web.bind.annotation.*;
 
-import org.springframework.web.bind.annotation.RestController;
+import javax.annotation.Resource;
+import java.util.List;
 
 /**
  * <p>
@@ -17,4 +20,47 @@ import org.springframework.web.bind.annotation.RestController;
 @RequestMapping("/follow")
 public class FollowController {
 
+    @Resource
+    private IFollowService followService;
+
+    /**
+     * 关注或取消关注
+     * @param followUserId 被关注的用户id
+     * @param isFollow true 关注, false 取消关注
+     * @return 无
+     */
+    @PutMapping("/{id}/{isFollow}")
+    public Result follow(@PathVariable("id") Long followUserId, @PathVariable("isFollow") Boolean isFollow) {
+        return followService.follow(followUserId, isFollow);
+    }
+
+    /**
+     * 是否关注了某个用户
+     * @param followUserId 用户id
+     * @return true 已关注
+     */
+    @GetMapping("/or/not/{id}")
+    public Result isFollow(@PathVariable("id") Long followUserId) {
+        return followService.isFollow(followUserId);
+    }
+
+    /**
+     * 是否关注了多个用户
+     * @param ids 用户id, 逗号分隔
+     * @return 用户id -> 是否关注
+     */
+    @GetMapping("/or/not")
+    public Result isFollowBatch(@RequestParam("ids") List<Long> ids) {
+        return followService.isFollowBatch(ids);
+    }
+
+    /**
+     * 与某个用户的共同关注
+     * @param id 用户id
+     * @return 共同关注的用户
+     */
+    @GetMapping("/common/{id}")
+    public Result followCommons(@PathVariable("id") Long id) {
+        return followService.followCommons(id);
+    }
 }
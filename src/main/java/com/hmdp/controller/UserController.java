@@ -70,16 +70,60 @@ public class UserController {
         return Result.ok(user);
     }
 
+    /**
+     * 修改当前用户的昵称、头像
+     * @param user 昵称、头像, 不修改的字段不传
+     * @return 无
+     */
+    @PutMapping("/me")
+    public Result updateMe(@RequestBody UserDTO user){
+        user.setId(UserHolder.getUser().getId());
+        if (user.getNickName() == null && user.getIcon() == null) {
+            return Result.fail("没有需要修改的内容");
+        }
+        return userService.updateMe(user);
+    }
+
+    /**
+     * 查询用户公开信息
+     * @param userId 用户id
+     * @return 昵称与头像
+     */
+    @GetMapping("/{id}")
+    public Result queryUserById(@PathVariable("id") Long userId){
+        UserDTO user = userService.queryUserById(userId);
+        if (user == null) {
+            return Result.ok();
+        }
+        return Result.ok(user);
+    }
+
+    /**
+     * 当天签到
+     * @return 无
+     */
+    @PostMapping("/sign")
+    public Result sign(){
+        return userService.sign();
+    }
+
+    /**
+     * 当前连续签到天数
+     * @return 天数
+     */
+    @GetMapping("/sign/count")
+    public Result signCount(){
+        return userService.signCount();
+    }
+
     @GetMapping("/info/{id}")
     public Result info(@PathVariable("id") Long userId){
-        // 查询详情
-        UserInfo info = userInfoService.getById(userId);
+        // 查询详情, 粉丝数、关注数包含尚未写回的增量
+        UserInfo info = userInfoService.queryInfo(userId);
         if (info == null) {
             // 没有详情，应该是第一次查看详情
             return Result.ok();
         }
-        info.setCreateTime(null);
-        info.setUpdateTime(null);
         // 返回
         return Result.ok(info);
     }
@@ -0,0 +1,49 @@
+package com.hmdp.controller;
+
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.utils.UvCounter;
+import org.springframework.web.bind.annotation.*;
+
+import javax.annotation.Resource;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+/**
+ * <p>
+ * 店铺、博文访客数查询
+ * </p>
+ */
+@RestController
+@RequestMapping("/uv")
+public class UvController {
+
+    @Resource
+    private UvCounter uvCounter;
+
+    /**
+     * 查询店铺或博文在某天、某周、某月的去重访客数
+     * @param target shop 或 blog
+     * @param id 店铺或博文id
+     * @param period day、week 或 month
+     * @param date 周期内的任意一天, 格式 yyyy-MM-dd, 默认今天
+     * @return 估计的访客数, 误差约 0.81%
+     */
+    @GetMapping("/{target}/{id}")
+    public Result queryUv(@PathVariable("target") String target, @PathVariable("id") Long id,
+                          @RequestParam(value = "period", defaultValue = "day") String period,
+                          @RequestParam(value = "date", required = false) String date) {
+        UvCounter.Target t;
+        UvCounter.Period p;
+        LocalDate day;
+        try {
+            t = UvCounter.Target.valueOf(target.toUpperCase());
+            p = UvCounter.Period.valueOf(period.toUpperCase());
+            day = StrUtil.isBlank(date) ? LocalDate.now() : LocalDate.parse(date);
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            return Result.fail("参数错误");
+        }
+        return Result.ok(uvCounter.count(t, id, p, day));
+    }
+}
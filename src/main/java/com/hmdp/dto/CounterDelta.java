@@ -0,0 +1,14 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 一行记录的计数增量
+ */
+@Data
+@AllArgsConstructor
+public class CounterDelta {
+    private Long id;
+    private Long delta;
+}
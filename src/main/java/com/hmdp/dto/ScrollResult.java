@@ -9,4 +9,8 @@ public class ScrollResult {
     private List<?> list;
     private Long minTime;
     private Integer offset;
+    /**
+     * 按主键游标翻页时, 本页最后一条的id
+     */
+    private Long lastId;
 }
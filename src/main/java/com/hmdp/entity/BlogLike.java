@@ -0,0 +1,42 @@
+package com.hmdp.entity;
+
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * <p>
+ * 博文点赞记录, 以 (blogId, userId) 为主键
+ * </p>
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Accessors(chain = true)
+@TableName("tb_blog_like")
+public class BlogLike implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 探店id
+     */
+    private Long blogId;
+
+    /**
+     * 点赞的用户id
+     */
+    private Long userId;
+
+    /**
+     * 点赞时间
+     */
+    private LocalDateTime createTime;
+
+
+}
@@ -0,0 +1,25 @@
+package com.hmdp.event;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 数据变更并且缓存已删除后发布的事件
+ * 本地缓存、预热、索引等需要跟随数据变化的组件订阅该事件
+ */
+@Data
+@AllArgsConstructor
+public class CacheChangeEvent {
+    /**
+     * 被删除的缓存key
+     */
+    private String key;
+    /**
+     * 变更的实体类型, 无法确定时为null
+     */
+    private Class<?> entityType;
+    /**
+     * 变更的实体id
+     */
+    private Object id;
+}
@@ -0,0 +1,24 @@
+package com.hmdp.event;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 关注关系变更并提交后发布的事件, 重复关注、重复取消不发布
+ */
+@Data
+@AllArgsConstructor
+public class FollowChangeEvent {
+    /**
+     * 发起关注的用户
+     */
+    private Long userId;
+    /**
+     * 被关注的用户
+     */
+    private Long followUserId;
+    /**
+     * true 关注, false 取消关注
+     */
+    private boolean follow;
+}
@@ -0,0 +1,140 @@
+package com.hmdp.job;
+
+import com.hmdp.entity.Blog;
+import com.hmdp.service.IBlogService;
+import com.hmdp.utils.BlogHotRanking;
+import com.hmdp.utils.CounterType;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.WriteBehindCounter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * 从 tb_blog 全量重建热门博文排行 {@link BlogHotRanking}
+ * 1. 启动时及排行丢失时重建, 按主键游标分页读取 id、liked、create_time, 加上尚未写回的点赞数
+ * 2. 开启衰减时每小时重建一次, 修正已有分数的衰减
+ * 3. 集群内同一时间只有一个节点重建
+ */
+@Slf4j
+@Component
+public class BlogHotRankBuilder implements ApplicationRunner {
+
+    private static final String REBUILD_LOCK = "blog:hot:rebuild";
+    private static final long REBUILD_LOCK_SECONDS = 600;
+
+    @Resource
+    private IBlogService blogService;
+    @Resource
+    private BlogHotRanking blogHotRanking;
+    @Resource
+    private WriteBehindCounter writeBehindCounter;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.blog.hot.build-on-startup:true}")
+    private boolean buildOnStartup;
+    @Value("${hmdp.blog.hot.build-page-size:1000}")
+    private int pageSize;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (buildOnStartup) {
+            ensureExists();
+        }
+    }
+
+    /**
+     * 排行不存在时重建, 例如 redis 数据丢失
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void ensureExists() {
+        try {
+            if (!blogHotRanking.exists()) {
+                rebuild();
+            }
+        } catch (Exception e) {
+            // 排行不可用时热门列表退回数据库
+            log.error("热门博文排行重建失败", e);
+        }
+    }
+
+    @Scheduled(cron = "${hmdp.blog.hot.rebuild-cron:0 10 * * * ?}")
+    public void rebuildDecayed() {
+        if (!blogHotRanking.isDecaying()) {
+            return;
+        }
+        try {
+            rebuild();
+        } catch (Exception e) {
+            log.error("热门博文排行重建失败", e);
+        }
+    }
+
+    /**
+     * 全量重建
+     *
+     * @return 写入的博文数, 其他线程或节点正在重建时返回-1
+     */
+    public long rebuild() {
+        if (!running.compareAndSet(false, true)) {
+            return -1;
+        }
+        SimpleRedisLock lock = new SimpleRedisLock(REBUILD_LOCK, stringRedisTemplate);
+        try {
+            if (!lock.tryLock(REBUILD_LOCK_SECONDS)) {
+                return -1;
+            }
+            long begin = System.currentTimeMillis();
+            long total = 0;
+            long cursor = 0;
+            blogHotRanking.startRebuild();
+            while (true) {
+                List<Blog> blogs = blogService.query()
+                        .select("id", "liked", "create_time")
+                        .gt("id", cursor)
+                        .orderByAsc("id")
+                        .last("limit " + pageSize)
+                        .list();
+                if (blogs.isEmpty()) {
+                    break;
+                }
+                Map<Long, Long> pending = writeBehindCounter.pending(CounterType.BLOG_LIKED,
+                        blogs.stream().map(Blog::getId).collect(Collectors.toList()));
+                Map<Long, Long> scores = new LinkedHashMap<>(blogs.size() * 2);
+                for (Blog blog : blogs) {
+                    long liked = Math.max(0, (blog.getLiked() == null ? 0 : blog.getLiked())
+                            + pending.getOrDefault(blog.getId(), 0L));
+                    scores.put(blog.getId(), blogHotRanking.score(liked, blog.getCreateTime()));
+                }
+                blogHotRanking.addRebuild(scores);
+                total += blogs.size();
+                if (blogs.size() < pageSize) {
+                    break;
+                }
+                cursor = blogs.get(blogs.size() - 1).getId();
+            }
+            blogHotRanking.finishRebuild();
+            log.info("热门博文排行重建完成, 共 {} 条, 耗时 {} ms", total, System.currentTimeMillis() - begin);
+            return total;
+        } finally {
+            // 未抢到锁时脚本比较不一致, 不会删除其他节点的锁
+            lock.unlock();
+            running.set(false);
+        }
+    }
+}
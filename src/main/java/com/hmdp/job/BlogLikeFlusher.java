@@ -0,0 +1,96 @@
+package com.hmdp.job;
+
+import com.hmdp.entity.BlogLike;
+import com.hmdp.mapper.BlogLikeMapper;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SimpleRedisLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.Resource;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 把 redis 中的点赞变更批量写入 tb_blog_like
+ * 点赞状态以 blog:liked:{id} 为准, 点赞、取消时只在 blog:liked:dirty 中记下 (blogId, userId) 的最终状态;
+ * 定时 RENAME 为 :flushing 后按状态分成 INSERT IGNORE 和 DELETE 两组批量执行, 重复执行结果相同
+ */
+@Slf4j
+@Component
+public class BlogLikeFlusher {
+
+    private static final String FLUSHING_SUFFIX = ":flushing";
+    private static final int BATCH_SIZE = 500;
+    private static final long FLUSH_LOCK_SECONDS = 60;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private BlogLikeMapper blogLikeMapper;
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    /**
+     * 记录一次点赞或取消点赞
+     *
+     * @param likeTime 点赞时间戳, 取消点赞传0
+     */
+    public void record(Long blogId, Long userId, long likeTime) {
+        stringRedisTemplate.opsForHash().put(RedisConstants.BLOG_LIKED_DIRTY_KEY,
+                blogId + ":" + userId, String.valueOf(likeTime));
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.blog.like-flush-millis:5000}")
+    public void flush() {
+        new SimpleRedisLock(RedisConstants.BLOG_LIKED_FLUSH_LOCK, stringRedisTemplate).runLocked(FLUSH_LOCK_SECONDS, () -> {
+            try {
+                flushDirty();
+            } catch (Exception e) {
+                // flushing hash 保留, 下次重试
+                log.error("点赞记录写库失败", e);
+            }
+        });
+    }
+
+    private void flushDirty() {
+        String pendingKey = RedisConstants.BLOG_LIKED_DIRTY_KEY;
+        String flushingKey = pendingKey + FLUSHING_SUFFIX;
+        // 上次未写完的批次先处理, 保证同一对 (blogId, userId) 的变更按顺序落库
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(flushingKey))) {
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(pendingKey))) {
+                return;
+            }
+            stringRedisTemplate.rename(pendingKey, flushingKey);
+        }
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(flushingKey);
+        List<BlogLike> likes = new ArrayList<>();
+        List<BlogLike> unlikes = new ArrayList<>();
+        for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+            String field = entry.getKey().toString();
+            int sep = field.indexOf(':');
+            long time = Long.parseLong(entry.getValue().toString());
+            BlogLike like = new BlogLike(Long.valueOf(field.substring(0, sep)), Long.valueOf(field.substring(sep + 1)),
+                    time == 0 ? null : LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault()));
+            (time == 0 ? unlikes : likes).add(like);
+        }
+        transactionTemplate.execute(status -> {
+            for (int i = 0; i < unlikes.size(); i += BATCH_SIZE) {
+                blogLikeMapper.deleteBatch(unlikes.subList(i, Math.min(i + BATCH_SIZE, unlikes.size())));
+            }
+            for (int i = 0; i < likes.size(); i += BATCH_SIZE) {
+                blogLikeMapper.insertBatch(likes.subList(i, Math.min(i + BATCH_SIZE, likes.size())));
+            }
+            return null;
+        });
+        stringRedisTemplate.delete(flushingKey);
+        log.debug("点赞记录写库完成, 点赞 {} 条, 取消 {} 条", likes.size(), unlikes.size());
+    }
+}
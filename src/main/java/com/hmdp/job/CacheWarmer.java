@@ -0,0 +1,183 @@
+package com.hmdp.job;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.event.CacheChangeEvent;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.RedisConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 店铺缓存预热
+ * 按主键游标分页读取 tb_shop, 每页用一次 pipeline 写入 redis,
+ * 写入并发和每秒页数都有上限, 避免预热本身压垮 redis 或数据库;
+ * 写入格式与 getShopById 的 PASS_THROUGH 读取一致, 使用普通TTL
+ */
+@Slf4j
+@Component
+public class CacheWarmer implements ApplicationRunner {
+
+    private static final ExecutorService WARM_EXECUTOR = Executors.newFixedThreadPool(4);
+
+    @Resource
+    private IShopService shopService;
+    @Resource
+    private IShopTypeService shopTypeService;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Value("${hmdp.cache.warm-on-startup:false}")
+    private boolean warmOnStartup;
+    @Value("${hmdp.cache.warm-page-size:500}")
+    private int pageSize;
+    // 同时进行中的 pipeline 写入数
+    @Value("${hmdp.cache.warm-concurrency:2}")
+    private int concurrency;
+    // 每秒最多读取的页数
+    @Value("${hmdp.cache.warm-pages-per-second:20}")
+    private int pagesPerSecond;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong warmed = new AtomicLong();
+    private volatile long lastId;
+    private volatile long startTime;
+    private volatile long endTime;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (warmOnStartup) {
+            start();
+        }
+    }
+
+    /**
+     * 异步开始预热
+     *
+     * @return boolean 是否成功开始, 已有预热在进行时返回false
+     */
+    public boolean start() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        warmed.set(0);
+        lastId = 0;
+        startTime = System.currentTimeMillis();
+        endTime = 0;
+        WARM_EXECUTOR.submit(() -> {
+            try {
+                warmShopTypes();
+                warmShops();
+                log.info("缓存预热完成, 共 {} 条, 耗时 {} ms", warmed.get(), System.currentTimeMillis() - startTime);
+            } catch (Exception e) {
+                log.error("缓存预热失败, 游标停在 id={}", lastId, e);
+            } finally {
+                endTime = System.currentTimeMillis();
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 预热进度
+     */
+    public Map<String, Object> progress() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        long end = endTime == 0 ? System.currentTimeMillis() : endTime;
+        long elapsed = Math.max(end - startTime, 1);
+        m.put("running", running.get());
+        m.put("warmed", warmed.get());
+        m.put("lastId", lastId);
+        m.put("elapsedMillis", startTime == 0 ? 0 : elapsed);
+        m.put("perSecond", startTime == 0 ? 0 : warmed.get() * 1000 / elapsed);
+        return m;
+    }
+
+    /**
+     * 热点店铺变更后立即回填缓存, 避免删除后大量请求同时回源
+     */
+    @EventListener
+    public void onCacheChange(CacheChangeEvent event) {
+        if (event.getEntityType() != Shop.class || event.getId() == null || !hotKeyDetector.isHot(event.getKey())) {
+            return;
+        }
+        Shop shop = shopService.getById((Serializable) event.getId());
+        if (shop != null) {
+            cacheClient.set(RedisConstants.CACHE_SHOP_KEY, shop.getId(), shop, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        }
+    }
+
+    private void warmShopTypes() {
+        List<ShopType> typeList = shopTypeService.query().orderByAsc("sort").list();
+        cacheClient.set(RedisConstants.CACHE_SHOP_TYPE_KEY, "", typeList, RedisConstants.CACHE_SHOP_TYPE_TTL, TimeUnit.MINUTES);
+    }
+
+    private void warmShops() throws InterruptedException {
+        Semaphore permits = new Semaphore(concurrency);
+        long interval = 1000L / Math.max(pagesPerSecond, 1);
+        long cursor = 0;
+        while (true) {
+            long begin = System.currentTimeMillis();
+            // 游标分页, 不使用 offset
+            List<Shop> shops = shopService.query()
+                    .gt("id", cursor)
+                    .orderByAsc("id")
+                    .last("limit " + pageSize)
+                    .list();
+            if (shops.isEmpty()) {
+                break;
+            }
+            cursor = shops.get(shops.size() - 1).getId();
+            Map<Long, Shop> batch = new LinkedHashMap<>(shops.size() * 2);
+            for (Shop shop : shops) {
+                batch.put(shop.getId(), shop);
+            }
+            long pageLastId = cursor;
+            permits.acquire();
+            WARM_EXECUTOR.submit(() -> {
+                try {
+                    cacheClient.setBatch(RedisConstants.CACHE_SHOP_KEY, batch, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES, false);
+                    warmed.addAndGet(batch.size());
+                    lastId = Math.max(lastId, pageLastId);
+                } catch (Exception e) {
+                    log.error("缓存预热写入失败, 页末 id={}", pageLastId, e);
+                } finally {
+                    permits.release();
+                }
+            });
+            if (shops.size() < pageSize) {
+                break;
+            }
+            // 限速
+            long cost = System.currentTimeMillis() - begin;
+            if (cost < interval) {
+                Thread.sleep(interval - cost);
+            }
+        }
+        // 等待在途写入完成
+        permits.acquire(concurrency);
+        permits.release(concurrency);
+    }
+}
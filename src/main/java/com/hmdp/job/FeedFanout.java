@@ -0,0 +1,210 @@
+package com.hmdp.job;
+
+import com.hmdp.entity.Follow;
+import com.hmdp.service.IFollowService;
+import com.hmdp.utils.RedisConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * 博文发布后推送到粉丝的收件箱 feed:{userId}
+ * 1. 在后台线程中按主键游标分页读取粉丝, 每页一次 pipeline: ZADD 博文id 后 ZREMRANGEBYRANK 截断到 {@link RedisConstants#FEED_MAX_SIZE}
+ * 2. 分数为发布时间戳, 读取时按 (上一页最小时间戳, 同时间戳偏移量) 翻页
+ * 3. 队列满时由发布线程自己推送, 不丢弃
+ * 4. 粉丝数达到阈值的作者记入 feed:big, 之后只写自己的发件箱 feed:outbox:{authorId}, 由粉丝读取时拉取;
+ *    成为大V后不再退回推模式, 避免已写入发件箱的博文从粉丝的关注流中消失
+ */
+@Slf4j
+@Component
+public class FeedFanout {
+
+    private static final int THREADS = 2;
+    private static final int QUEUE_CAPACITY = 10000;
+
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS,
+            0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(QUEUE_CAPACITY),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+    private final LongAdder inboxes = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final Latency pushPosts = new Latency();
+    private final Latency pullPosts = new Latency();
+    private final Latency inboxReads = new Latency();
+    private final Latency mergedReads = new Latency();
+
+    @Resource
+    private IFollowService followService;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.feed.fanout-page-size:1000}")
+    private int pageSize;
+    @Value("${hmdp.feed.push-threshold:5000}")
+    private long pushThreshold;
+
+    /**
+     * 异步推送一篇博文
+     *
+     * @param authorId 作者id
+     * @param blogId 博文id
+     * @param timestamp 发布时间戳
+     */
+    public void push(Long authorId, Long blogId, long timestamp) {
+        executor.execute(() -> {
+            try {
+                fanout(authorId, blogId, timestamp);
+            } catch (Exception e) {
+                failed.increment();
+                log.error("博文 {} 推送失败", blogId, e);
+            }
+        });
+    }
+
+    /**
+     * 同步推送给作者的全部粉丝, 大V只写发件箱
+     *
+     * @return 推送的收件箱数, 写入发件箱时返回0
+     */
+    public long fanout(Long authorId, Long blogId, long timestamp) {
+        long begin = System.nanoTime();
+        String member = blogId.toString();
+        if (isBigAuthor(authorId)) {
+            String outbox = RedisConstants.FEED_OUTBOX_KEY + authorId;
+            stringRedisTemplate.opsForZSet().add(outbox, member, timestamp);
+            stringRedisTemplate.opsForZSet().removeRange(outbox, 0, -RedisConstants.FEED_MAX_SIZE - 1);
+            pullPosts.record(System.nanoTime() - begin);
+            return 0;
+        }
+        long total = 0;
+        long cursor = 0;
+        while (true) {
+            List<Follow> fans = followService.query()
+                    .select("id", "user_id")
+                    .eq("follow_user_id", authorId)
+                    .gt("id", cursor)
+                    .orderByAsc("id")
+                    .last("limit " + pageSize)
+                    .list();
+            if (fans.isEmpty()) {
+                break;
+            }
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection redis = (StringRedisConnection) connection;
+                for (Follow fan : fans) {
+                    String key = RedisConstants.FEED_KEY + fan.getUserId();
+                    redis.zAdd(key, timestamp, member);
+                    redis.zRemRange(key, 0, -RedisConstants.FEED_MAX_SIZE - 1);
+                }
+                return null;
+            });
+            total += fans.size();
+            if (fans.size() < pageSize) {
+                break;
+            }
+            cursor = fans.get(fans.size() - 1).getId();
+        }
+        inboxes.add(total);
+        pushPosts.record(System.nanoTime() - begin);
+        return total;
+    }
+
+    /**
+     * 已是大V, 或粉丝数达到阈值时记为大V
+     */
+    private boolean isBigAuthor(Long authorId) {
+        String member = authorId.toString();
+        if (Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(RedisConstants.FEED_BIG_AUTHORS_KEY, member))) {
+            return true;
+        }
+        if (followService.query().eq("follow_user_id", authorId).count() < pushThreshold) {
+            return false;
+        }
+        stringRedisTemplate.opsForSet().add(RedisConstants.FEED_BIG_AUTHORS_KEY, member);
+        log.info("作者 {} 粉丝数达到 {}, 改为拉模式", authorId, pushThreshold);
+        return true;
+    }
+
+    /**
+     * 用户关注的大V, 读取关注流时需要拉取他们的发件箱
+     * follows:{userId} 与 feed:big 求交集
+     */
+    public List<Long> bigFolloweesOf(Long userId) {
+        Set<String> big = stringRedisTemplate.opsForSet()
+                .intersect(RedisConstants.FOLLOWS_KEY + userId, RedisConstants.FEED_BIG_AUTHORS_KEY);
+        if (big == null || big.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return big.stream().map(Long::valueOf).collect(Collectors.toList());
+    }
+
+    /**
+     * 记录一次关注流读取的耗时
+     *
+     * @param merged 是否归并了发件箱
+     */
+    public void recordRead(boolean merged, long nanos) {
+        (merged ? mergedReads : inboxReads).record(nanos);
+    }
+
+    public Map<String, Object> stats() {
+        long pushNanos = pushPosts.nanos.sum();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("inboxes", inboxes.sum());
+        m.put("failed", failed.sum());
+        m.put("queued", executor.getQueue().size());
+        // 推模式吞吐量: 每秒写入的收件箱数
+        m.put("inboxesPerSecond", pushNanos == 0 ? 0 : inboxes.sum() * 1_000_000_000L / pushNanos);
+        m.put("pushPosts", pushPosts.snapshot());
+        m.put("pullPosts", pullPosts.snapshot());
+        m.put("inboxReads", inboxReads.snapshot());
+        m.put("mergedReads", mergedReads.snapshot());
+        return m;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * 次数、平均与最大耗时
+     */
+    private static final class Latency {
+        final LongAdder count = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+
+        void record(long cost) {
+            count.increment();
+            nanos.add(cost);
+            maxNanos.accumulate(cost);
+        }
+
+        Map<String, Object> snapshot() {
+            long n = count.sum();
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("count", n);
+            m.put("avgMicros", n == 0 ? 0 : nanos.sum() / n / 1000);
+            m.put("maxMicros", maxNanos.get() / 1000);
+            return m;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.hmdp.job;
+
+import com.hmdp.entity.Follow;
+import com.hmdp.service.IFollowService;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SimpleRedisLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 从 tb_follow 重建 follows:{userId} 集合
+ * 1. 按 uk_user_follow(user_id, follow_user_id) 游标分页, 同一用户的关注连续读出
+ * 2. 每个用户先写入临时key再 RENAME, 读取方不会看到写了一半的集合
+ * 3. 启动时及每分钟检查 follows:ready 标记, 不存在(例如 redis 数据丢失)则重建, 集群内由锁互斥
+ * 4. 重建后 SCAN follows:*, 删除表中已没有关注记录的用户的集合
+ * 重建期间被重建用户的关注变更可能被覆盖, 再次关注或下次重建后修正
+ */
+@Slf4j
+@Component
+public class FollowSetRebuilder implements ApplicationRunner {
+
+    private static final String REBUILD_LOCK = "follows:rebuild";
+    private static final long REBUILD_LOCK_SECONDS = 600;
+    private static final String BUILDING_SUFFIX = ":building";
+
+    @Resource
+    private IFollowService followService;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.follow.rebuild-on-startup:true}")
+    private boolean rebuildOnStartup;
+    @Value("${hmdp.follow.rebuild-page-size:1000}")
+    private int pageSize;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (rebuildOnStartup) {
+            ensureExists();
+        }
+    }
+
+    /**
+     * 没有 follows:ready 标记时重建, 例如 redis 清空或主从切换后数据丢失
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void ensureExists() {
+        try {
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisConstants.FOLLOWS_READY_KEY))) {
+                rebuild();
+            }
+        } catch (Exception e) {
+            log.error("关注集合重建失败", e);
+        }
+    }
+
+    /**
+     * 全量重建
+     *
+     * @return 重建的关注关系数, 其他线程或节点正在重建时返回-1
+     */
+    public long rebuild() {
+        if (!running.compareAndSet(false, true)) {
+            return -1;
+        }
+        SimpleRedisLock lock = new SimpleRedisLock(REBUILD_LOCK, stringRedisTemplate);
+        try {
+            if (!lock.tryLock(REBUILD_LOCK_SECONDS)) {
+                return -1;
+            }
+            long begin = System.currentTimeMillis();
+            long total = 0;
+            long lastUser = 0;
+            long lastFollow = 0;
+            // 跨页的用户留到下一页一起写入
+            Long currentUser = null;
+            List<String> current = new ArrayList<>();
+            Set<Long> rebuilt = new HashSet<>();
+            while (true) {
+                long u = lastUser;
+                long f = lastFollow;
+                List<Follow> follows = followService.query()
+                        .select("user_id", "follow_user_id")
+                        .and(w -> w.gt("user_id", u).or(o -> o.eq("user_id", u).gt("follow_user_id", f)))
+                        .orderByAsc("user_id", "follow_user_id")
+                        .last("limit " + pageSize)
+                        .list();
+                Map<Long, List<String>> done = new LinkedHashMap<>();
+                for (Follow follow : follows) {
+                    if (currentUser != null && !currentUser.equals(follow.getUserId())) {
+                        done.put(currentUser, current);
+                        current = new ArrayList<>();
+                    }
+                    currentUser = follow.getUserId();
+                    current.add(follow.getFollowUserId().toString());
+                }
+                if (follows.size() < pageSize && currentUser != null) {
+                    done.put(currentUser, current);
+                }
+                writeSets(done);
+                rebuilt.addAll(done.keySet());
+                total += follows.size();
+                if (follows.size() < pageSize) {
+                    break;
+                }
+                Follow last = follows.get(follows.size() - 1);
+                lastUser = last.getUserId();
+                lastFollow = last.getFollowUserId();
+            }
+            long removed = removeStale(rebuilt);
+            stringRedisTemplate.opsForValue().set(RedisConstants.FOLLOWS_READY_KEY, String.valueOf(System.currentTimeMillis()));
+            log.info("关注集合重建完成, 共 {} 条, 删除过期集合 {} 个, 耗时 {} ms",
+                    total, removed, System.currentTimeMillis() - begin);
+            return total;
+        } finally {
+            // 未抢到锁时脚本比较不一致, 不会删除其他节点的锁
+            lock.unlock();
+            running.set(false);
+        }
+    }
+
+    /**
+     * 删除本次重建没有写入的用户集合, 删除前再查一次表, 跳过重建期间新关注的用户
+     *
+     * @param rebuilt 本次重建写入了集合的用户
+     * @return 删除的集合数
+     */
+    private long removeStale(Set<Long> rebuilt) {
+        List<Long> candidates = new ArrayList<>();
+        ScanOptions options = ScanOptions.scanOptions().match(RedisConstants.FOLLOWS_KEY + "*").count(1000).build();
+        try (Cursor<byte[]> cursor = stringRedisTemplate.executeWithStickyConnection(
+                connection -> connection.scan(options))) {
+            while (cursor.hasNext()) {
+                String userId = new String(cursor.next(), StandardCharsets.UTF_8).substring(RedisConstants.FOLLOWS_KEY.length());
+                // 跳过 follows:ready 和写入中的临时key
+                if (!userId.isEmpty() && userId.chars().allMatch(Character::isDigit)
+                        && !rebuilt.contains(Long.valueOf(userId))) {
+                    candidates.add(Long.valueOf(userId));
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("关闭关注集合游标失败", e);
+        }
+        long removed = 0;
+        for (Long userId : candidates) {
+            if (followService.query().eq("user_id", userId).count() == 0) {
+                stringRedisTemplate.delete(RedisConstants.FOLLOWS_KEY + userId);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * 一次 pipeline 写入一批用户的集合
+     */
+    private void writeSets(Map<Long, List<String>> sets) {
+        if (sets.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection redis = (StringRedisConnection) connection;
+            sets.forEach((userId, members) -> {
+                String key = RedisConstants.FOLLOWS_KEY + userId;
+                String building = key + BUILDING_SUFFIX;
+                redis.del(building);
+                redis.sAdd(building, members.toArray(new String[0]));
+                redis.rename(building, key);
+            });
+            return null;
+        });
+    }
+}
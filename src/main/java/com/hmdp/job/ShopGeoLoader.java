@@ -0,0 +1,141 @@
+package com.hmdp.job;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IShopService;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.ShopGeoIndex;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 按店铺类型把 tb_shop 的坐标导入 redis GEO, key 为 shop:geo:{typeId}, 同时构建进程内的 {@link ShopGeoIndex}
+ * 按主键游标分页读取, 每页每个类型一条 GEOADD; GEOADD 幂等, 可重复执行
+ * redis 写入失败时继续读完全表, 保证本地索引可用
+ * 店铺变更由 {@link ShopIndexSync} 广播到各节点增量更新, 另外定时重建本地索引, 兜底丢失的广播
+ */
+@Slf4j
+@Component
+public class ShopGeoLoader implements ApplicationRunner {
+
+    @Resource
+    private IShopService shopService;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+
+    @Value("${hmdp.geo.load-on-startup:true}")
+    private boolean loadOnStartup;
+    @Value("${hmdp.geo.load-page-size:1000}")
+    private int pageSize;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!loadOnStartup) {
+            return;
+        }
+        try {
+            load();
+        } catch (Exception e) {
+            // 未导入时附近查询退回按类型分页, 不影响启动
+            log.error("店铺坐标导入失败", e);
+        }
+    }
+
+    /**
+     * 全量导入店铺坐标
+     *
+     * @return 导入的店铺数, 已有导入在进行时返回-1
+     */
+    public long load() {
+        return load(true);
+    }
+
+    /**
+     * 定时重建本节点的坐标索引, redis GEO 由写入时同步, 不重复导入
+     */
+    @Scheduled(initialDelayString = "${hmdp.geo.local-rebuild-millis:3600000}",
+            fixedDelayString = "${hmdp.geo.local-rebuild-millis:3600000}")
+    public void rebuildLocal() {
+        if (!shopGeoIndex.isReady()) {
+            // 启动时的导入尚未完成或已关闭
+            return;
+        }
+        try {
+            load(false);
+        } catch (Exception e) {
+            log.error("店铺坐标索引重建失败", e);
+        }
+    }
+
+    private long load(boolean writeRedis) {
+        if (!running.compareAndSet(false, true)) {
+            return -1;
+        }
+        long begin = System.currentTimeMillis();
+        long loaded = 0;
+        boolean redisFailed = !writeRedis;
+        List<Shop> all = new ArrayList<>();
+        try {
+            long cursor = 0;
+            while (true) {
+                List<Shop> shops = shopService.query()
+                        .select("id", "type_id", "x", "y")
+                        .gt("id", cursor)
+                        .orderByAsc("id")
+                        .last("limit " + pageSize)
+                        .list();
+                if (shops.isEmpty()) {
+                    break;
+                }
+                cursor = shops.get(shops.size() - 1).getId();
+                all.addAll(shops);
+                if (redisFailed) {
+                    continue;
+                }
+                Map<Long, List<RedisGeoCommands.GeoLocation<String>>> byType = new HashMap<>();
+                for (Shop shop : shops) {
+                    if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+                        continue;
+                    }
+                    byType.computeIfAbsent(shop.getTypeId(), k -> new ArrayList<>())
+                            .add(new RedisGeoCommands.GeoLocation<>(shop.getId().toString(), new Point(shop.getX(), shop.getY())));
+                }
+                try {
+                    for (Map.Entry<Long, List<RedisGeoCommands.GeoLocation<String>>> entry : byType.entrySet()) {
+                        stringRedisTemplate.opsForGeo().add(RedisConstants.SHOP_GEO_KEY + entry.getKey(), entry.getValue());
+                        loaded += entry.getValue().size();
+                    }
+                } catch (Exception e) {
+                    redisFailed = true;
+                    log.error("店铺坐标写入redis失败, 游标停在 id={}, 只构建本地索引", cursor, e);
+                }
+                if (shops.size() < pageSize) {
+                    break;
+                }
+            }
+            shopGeoIndex.rebuild(all);
+            log.info("店铺坐标导入完成, redis {} 条, 本地索引 {} 条, 耗时 {} ms",
+                    loaded, shopGeoIndex.size(), System.currentTimeMillis() - begin);
+            return loaded;
+        } finally {
+            running.set(false);
+        }
+    }
+}
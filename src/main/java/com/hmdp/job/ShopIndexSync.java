@@ -0,0 +1,67 @@
+package com.hmdp.job;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.event.CacheChangeEvent;
+import com.hmdp.service.IShopService;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopNameIndex;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+/**
+ * 把店铺变更同步到每个节点的坐标索引和名称索引
+ * {@link CacheChangeEvent} 只在执行写操作的节点上发布, 这里转为 redis 广播,
+ * 包括本节点在内的所有节点收到后重新读取店铺并更新本地索引; 丢失的广播由各索引的定时重建兜底
+ */
+@Slf4j
+@Component
+public class ShopIndexSync {
+
+    @Resource
+    private IShopService shopService;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+    @Resource
+    private ShopNameIndex shopNameIndex;
+
+    /**
+     * 店铺变更并删除缓存后广播店铺id
+     */
+    @EventListener
+    public void onCacheChange(CacheChangeEvent event) {
+        if (event.getEntityType() != Shop.class || event.getId() == null) {
+            return;
+        }
+        stringRedisTemplate.convertAndSend(RedisConstants.SHOP_CHANGE_CHANNEL, event.getId().toString());
+    }
+
+    /**
+     * 收到广播后更新本节点的索引, 店铺已删除时从索引中移除
+     *
+     * @param message 店铺id
+     */
+    public void apply(String message) {
+        Long id;
+        try {
+            id = Long.valueOf(message);
+        } catch (NumberFormatException e) {
+            log.warn("无效的店铺变更消息 {}", message);
+            return;
+        }
+        Shop shop = shopService.getById(id);
+        if (shop == null) {
+            shopGeoIndex.remove(id);
+            shopNameIndex.remove(id);
+        } else {
+            shopGeoIndex.put(shop);
+            shopNameIndex.put(shop.getId(), shop.getName());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.hmdp.job;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IShopService;
+import com.hmdp.utils.ShopNameIndex;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 构建店铺名称索引 {@link ShopNameIndex}
+ * 启动后在后台按主键游标读取 tb_shop 的 id、name, 构建完成前名称搜索走 SQL
+ * 店铺变更由 {@link ShopIndexSync} 广播到各节点增量更新, 另外定时全量重建, 兜底丢失的广播
+ */
+@Slf4j
+@Component
+public class ShopNameIndexer implements ApplicationRunner {
+
+    private static final ExecutorService INDEX_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    @Resource
+    private IShopService shopService;
+    @Resource
+    private ShopNameIndex shopNameIndex;
+
+    @Value("${hmdp.search.index-on-startup:true}")
+    private boolean indexOnStartup;
+    @Value("${hmdp.search.index-page-size:1000}")
+    private int pageSize;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (indexOnStartup) {
+            start();
+        }
+    }
+
+    /**
+     * 异步全量重建
+     *
+     * @return boolean 是否成功开始, 已有重建在进行时返回false
+     */
+    public boolean start() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        INDEX_EXECUTOR.submit(() -> {
+            long begin = System.currentTimeMillis();
+            try {
+                Map<Long, String> names = new LinkedHashMap<>();
+                long cursor = 0;
+                while (true) {
+                    List<Shop> shops = shopService.query()
+                            .select("id", "name")
+                            .gt("id", cursor)
+                            .orderByAsc("id")
+                            .last("limit " + pageSize)
+                            .list();
+                    for (Shop shop : shops) {
+                        names.put(shop.getId(), shop.getName());
+                    }
+                    if (shops.size() < pageSize) {
+                        break;
+                    }
+                    cursor = shops.get(shops.size() - 1).getId();
+                }
+                shopNameIndex.rebuild(names);
+                log.info("店铺名称索引构建完成, 共 {} 条, 耗时 {} ms", names.size(), System.currentTimeMillis() - begin);
+            } catch (Exception e) {
+                log.error("店铺名称索引构建失败", e);
+            } finally {
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 定时全量重建, 索引未就绪时不执行
+     */
+    @Scheduled(initialDelayString = "${hmdp.search.rebuild-millis:3600000}",
+            fixedDelayString = "${hmdp.search.rebuild-millis:3600000}")
+    public void rebuild() {
+        if (shopNameIndex.isReady()) {
+            start();
+        }
+    }
+}
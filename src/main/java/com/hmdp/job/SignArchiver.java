@@ -0,0 +1,117 @@
+package com.hmdp.job;
+
+import com.hmdp.entity.SignMonth;
+import com.hmdp.mapper.SignMonthMapper;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SimpleRedisLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 把上个月的签到位图归档到 tb_sign_month, 每个用户每月一行
+ * SCAN sign:*:{yyyyMM} 取出 key, 每批一次管道 BITFIELD GET u32 0, 翻转为第0位在最低位后批量写入;
+ * 写入时与已有记录按位或, 每月1~3号各执行一次, 重复执行结果相同
+ */
+@Slf4j
+@Component
+public class SignArchiver {
+
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final int BATCH_SIZE = 500;
+    private static final long ARCHIVE_LOCK_SECONDS = 1800;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SignMonthMapper signMonthMapper;
+
+    @Scheduled(cron = "0 30 3 1-3 * ?")
+    public void archiveLastMonth() {
+        new SimpleRedisLock(RedisConstants.SIGN_ARCHIVE_LOCK, stringRedisTemplate).runLocked(ARCHIVE_LOCK_SECONDS, () -> {
+            try {
+                archive(YearMonth.now().minusMonths(1));
+            } catch (Exception e) {
+                // 位图保留两个月, 下次执行时重新归档
+                log.error("签到记录归档失败", e);
+            }
+        });
+    }
+
+    /**
+     * 归档一个月的签到位图
+     *
+     * @return 归档的用户数
+     */
+    public long archive(YearMonth month) {
+        long begin = System.currentTimeMillis();
+        String suffix = ":" + month.format(MONTH_FORMAT);
+        Integer monthValue = Integer.valueOf(month.format(MONTH_FORMAT));
+        ScanOptions options = ScanOptions.scanOptions().match(RedisConstants.USER_SIGN_KEY + "*" + suffix).count(1000).build();
+        long archived = 0;
+        List<String> keys = new ArrayList<>(BATCH_SIZE);
+        try (Cursor<byte[]> cursor = stringRedisTemplate.executeWithStickyConnection(
+                connection -> connection.scan(options))) {
+            while (cursor.hasNext()) {
+                keys.add(new String(cursor.next(), StandardCharsets.UTF_8));
+                if (keys.size() == BATCH_SIZE) {
+                    archived += archiveBatch(keys, suffix, monthValue);
+                    keys.clear();
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("关闭签到位图游标失败", e);
+        }
+        archived += archiveBatch(keys, suffix, monthValue);
+        log.info("{} 签到记录归档完成, 共 {} 个用户, 耗时 {} ms", monthValue, archived, System.currentTimeMillis() - begin);
+        return archived;
+    }
+
+    private int archiveBatch(List<String> keys, String suffix, Integer month) {
+        if (keys.isEmpty()) {
+            return 0;
+        }
+        BitFieldSubCommands get = BitFieldSubCommands.create()
+                .get(BitFieldSubCommands.BitFieldType.unsigned(32)).valueAt(0);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection redis = (StringRedisConnection) connection;
+            for (String key : keys) {
+                redis.bitfield(key, get);
+            }
+            return null;
+        });
+        List<SignMonth> signs = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            Object result = results.get(i);
+            if (!(result instanceof List) || ((List<?>) result).isEmpty()) {
+                continue;
+            }
+            long bits = ((Number) ((List<?>) result).get(0)).longValue();
+            if (bits == 0) {
+                continue;
+            }
+            String key = keys.get(i);
+            Long userId = Long.valueOf(key.substring(RedisConstants.USER_SIGN_KEY.length(), key.length() - suffix.length()));
+            // BITFIELD 的第0位是最高位, 翻转为第0位在最低位
+            signs.add(new SignMonth(userId, month, Integer.reverse((int) bits)));
+        }
+        if (!signs.isEmpty()) {
+            signMonthMapper.upsertBatch(signs);
+        }
+        return signs.size();
+    }
+}
@@ -0,0 +1,100 @@
+package com.hmdp.job;
+
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.UvCounter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 周、月结束后把每日访客 key 用 PFMERGE 汇总, 每日 key 过期后汇总仍可查询
+ * 一次 SCAN uv:* 找出周期内有访问的店铺和博文, 逐个 PFMERGE; 查询时发现未汇总也会补做
+ */
+@Slf4j
+@Component
+public class UvRollup {
+
+    private static final long ROLLUP_LOCK_SECONDS = 1800;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private UvCounter uvCounter;
+
+    @Scheduled(cron = "0 10 1 * * ?")
+    public void rollupYesterday() {
+        LocalDate yesterday = LocalDate.now().minusDays(1);
+        List<UvCounter.Period> periods = new ArrayList<>(2);
+        if (yesterday.getDayOfWeek() == DayOfWeek.SUNDAY) {
+            periods.add(UvCounter.Period.WEEK);
+        }
+        if (yesterday.getDayOfMonth() == yesterday.lengthOfMonth()) {
+            periods.add(UvCounter.Period.MONTH);
+        }
+        if (periods.isEmpty()) {
+            return;
+        }
+        new SimpleRedisLock(RedisConstants.UV_ROLLUP_LOCK, stringRedisTemplate).runLocked(ROLLUP_LOCK_SECONDS, () -> {
+            try {
+                for (UvCounter.Period period : periods) {
+                    rollup(period, yesterday);
+                }
+            } catch (Exception e) {
+                // 每日 key 未过期前查询时会补做汇总
+                log.error("访客数汇总失败", e);
+            }
+        });
+    }
+
+    /**
+     * 汇总一个周期内所有有访问的店铺和博文
+     *
+     * @param date 周期内的任意一天
+     * @return 汇总的key数
+     */
+    public long rollup(UvCounter.Period period, LocalDate date) {
+        long begin = System.currentTimeMillis();
+        LocalDate from = UvCounter.startOf(period, date);
+        LocalDate to = UvCounter.endOf(period, date);
+        Map<UvCounter.Target, Set<Long>> ids = new HashMap<>();
+        ScanOptions options = ScanOptions.scanOptions().match(RedisConstants.UV_KEY + "*").count(1000).build();
+        try (Cursor<byte[]> cursor = stringRedisTemplate.executeWithStickyConnection(
+                connection -> connection.scan(options))) {
+            while (cursor.hasNext()) {
+                UvCounter.DayKey key = UvCounter.parseDayKey(new String(cursor.next(), StandardCharsets.UTF_8));
+                if (key != null && !key.getDate().isBefore(from) && !key.getDate().isAfter(to)) {
+                    ids.computeIfAbsent(key.getTarget(), k -> new LinkedHashSet<>()).add(key.getId());
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("关闭访客key游标失败", e);
+        }
+        long total = 0;
+        for (Map.Entry<UvCounter.Target, Set<Long>> entry : ids.entrySet()) {
+            for (Long id : entry.getValue()) {
+                if (uvCounter.rollup(entry.getKey(), id, period, date)) {
+                    total++;
+                }
+            }
+        }
+        log.info("{} {}~{} 访客数汇总完成, 共 {} 个key, 耗时 {} ms",
+                period, from, to, total, System.currentTimeMillis() - begin);
+        return total;
+    }
+}
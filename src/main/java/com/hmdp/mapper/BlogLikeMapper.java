@@ -0,0 +1,24 @@
+package com.hmdp.mapper;
+
+import com.hmdp.entity.BlogLike;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+ * <p>
+ *  博文点赞记录 Mapper 接口
+ * </p>
+ */
+public interface BlogLikeMapper {
+
+    /**
+     * 批量写入点赞记录, 已存在的跳过
+     */
+    int insertBatch(@Param("likes") List<BlogLike> likes);
+
+    /**
+     * 按 (blogId, userId) 批量删除点赞记录
+     */
+    int deleteBatch(@Param("likes") List<BlogLike> likes);
+}
@@ -0,0 +1,33 @@
+package com.hmdp.mapper;
+
+import com.hmdp.dto.CounterDelta;
+import org.apache.ibatis.annotations.Param;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * <p>
+ *  计数回写 Mapper 接口
+ * </p>
+ */
+public interface CounterMapper {
+
+    /**
+     * 记录一个计数批次, 已存在时返回0
+     */
+    int insertFlush(@Param("flushId") String flushId);
+
+    /**
+     * 一条 UPDATE 给多行的同一列加上各自的增量, 结果小于0时取0
+     */
+    int addDeltas(@Param("table") String table, @Param("idColumn") String idColumn, @Param("column") String column,
+                  @Param("deltas") List<CounterDelta> deltas);
+
+    /**
+     * 补齐缺少的行, 其余列取默认值
+     */
+    int insertMissing(@Param("table") String table, @Param("idColumn") String idColumn, @Param("ids") List<Long> ids);
+
+    int deleteFlushBefore(@Param("time") LocalDateTime time);
+}
@@ -0,0 +1,21 @@
+package com.hmdp.mapper;
+
+import com.hmdp.entity.SignMonth;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+ * <p>
+ *  月度签到记录 Mapper 接口
+ * </p>
+ */
+public interface SignMonthMapper {
+
+    /**
+     * 批量写入, 已存在时与原记录按位或合并, 重复归档结果相同
+     */
+    int upsertBatch(@Param("signs") List<SignMonth> signs);
+
+    SignMonth selectOne(@Param("userId") Long userId, @Param("month") Integer month);
+}
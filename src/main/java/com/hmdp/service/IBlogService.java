@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,21 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IBlogService extends IService<Blog> {
 
+    Result saveBlog(Blog blog);
+
+    Result queryBlogById(Long id);
+
+    Result queryBlogOfFollow(Long userId, Long max, Integer offset);
+
+    Result likeBlog(Long id);
+
+    Result queryBlogLikes(Long id);
+
+    Result queryHotBlog(Integer current);
+
+    Result scrollHotBlog(Long max, Integer offset, Long lastId);
+
+    Result queryMyBlog(Long userId, Integer current);
+
+    Result scrollMyBlog(Long userId, Long lastId);
 }
@@ -15,5 +15,18 @@ import com.baomidou.mybatisplus.extension.service.IService;
 public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id);
+
+    Shop getShopById(Long id);
+
     Result update(Shop shop);
+
+    Result saveShop(Shop shop);
+
+    Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+
+    Result scrollShopByType(Integer typeId, Long lastId);
+
+    Result queryShopByName(String name, Integer current);
+
+    Result scrollShopByName(String name, Long max, Integer offset, Long lastId);
 }
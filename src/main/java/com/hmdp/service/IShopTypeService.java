@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -15,4 +17,15 @@ import com.baomidou.mybatisplus.extension.service.IService;
 public interface IShopTypeService extends IService<ShopType> {
 
     Result getTypeList();
+
+    /**
+     * 提前序列化好的 Result.ok(店铺类型列表) 响应体
+     */
+    byte[] getTypeListResponse();
+
+    List<ShopType> queryTypeList();
+
+    Result updateType(ShopType shopType);
+
+    void checkTypeListVersion();
 }
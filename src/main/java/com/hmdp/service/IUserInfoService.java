@@ -13,4 +13,7 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IUserInfoService extends IService<UserInfo> {
 
+    UserInfo queryInfo(Long userId);
+
+    UserInfo queryCachedInfo(Long userId);
 }
@@ -1,15 +1,44 @@
 package com.hmdp.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.annotation.HmdpCacheEvict;
+import com.hmdp.annotation.HmdpCacheable;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.BlogComments;
 import com.hmdp.mapper.BlogCommentsMapper;
 import com.hmdp.service.IBlogCommentsService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IBlogService;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.CounterType;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.WriteBehindCounter;
+import org.springframework.aop.framework.AopContext;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * <p>
  *  服务实现类
  * </p>
+ * 评论分两级: 一级评论 parent_id 为0, 回复的 parent_id 为所属的一级评论
+ * 一级评论按id倒序游标翻页, 本页的回复用一次 parent_id IN 查询取出后在内存中挂到各自的一级评论下;
+ * 第一页缓存在 cache:blog:comments:{blogId}, 新增评论后删除; 博文评论数走计数写回
  *
  * @author 虎哥
  * @since 2021-12-22
@@ -17,4 +46,166 @@ import org.springframework.stereotype.Service;
 @Service
 public class BlogCommentsServiceImpl extends ServiceImpl<BlogCommentsMapper, BlogComments> implements IBlogCommentsService {
 
+    // 状态为2(禁止查看)的评论不展示
+    private static final int STATUS_HIDDEN = 2;
+
+    @Resource
+    private IBlogService blogService;
+    @Resource
+    private IUserService userService;
+    @Resource
+    private WriteBehindCounter writeBehindCounter;
+
+    /**
+     * 发表评论或回复, 提交后博文评论数加1
+     *
+     * @param comment blogId、content, 回复时还需要 parentId 和 answerId
+     * @return Result 评论id
+     */
+    @Override
+    @Transactional
+    @HmdpCacheEvict(prefix = RedisConstants.CACHE_BLOG_COMMENTS_KEY, key = "#comment.blogId")
+    public Result saveComment(BlogComments comment) {
+        if (blogService.getById(comment.getBlogId()) == null) {
+            return Result.fail("博文不存在");
+        }
+        long parentId = comment.getParentId() == null ? 0 : comment.getParentId();
+        long answerId = comment.getAnswerId() == null ? parentId : comment.getAnswerId();
+        if (parentId != 0) {
+            BlogComments parent = getById(parentId);
+            if (parent == null || parent.getParentId() != 0 || !parent.getBlogId().equals(comment.getBlogId())) {
+                return Result.fail("回复的评论不存在");
+            }
+            if (answerId != parentId) {
+                // 回复的必须是同一条一级评论下的回复
+                BlogComments answer = getById(answerId);
+                if (answer == null || answer.getParentId() != parentId) {
+                    return Result.fail("回复的评论不存在");
+                }
+            }
+        } else {
+            answerId = 0;
+        }
+        comment.setUserId(UserHolder.getUser().getId())
+                .setParentId(parentId)
+                .setAnswerId(answerId)
+                .setLiked(0)
+                .setStatus(false);
+        save(comment);
+        Long blogId = comment.getBlogId();
+        afterCommit(() -> writeBehindCounter.increment(CounterType.BLOG_COMMENTS, blogId, 1));
+        return Result.ok(comment.getId());
+    }
+
+    /**
+     * 滚动查询博文的评论, 一级评论由新到旧, 每条附带全部回复
+     *
+     * @param blogId 博文id
+     * @param lastId 上一页最后一条一级评论的id, 第一页不传
+     * @return Result 评论列表, lastId 为本页最后一条一级评论的id
+     */
+    @Override
+    public Result queryComments(Long blogId, Long lastId) {
+        List<BlogComments> comments = lastId == null
+                ? ((IBlogCommentsService) AopContext.currentProxy()).queryFirstPage(blogId)
+                : loadPage(blogId, lastId);
+        if (comments == null) {
+            comments = new ArrayList<>();
+        }
+        fillUsers(comments);
+        ScrollResult r = new ScrollResult();
+        r.setList(comments);
+        if (!comments.isEmpty()) {
+            r.setLastId(comments.get(comments.size() - 1).getId());
+        }
+        return Result.ok(r);
+    }
+
+    /**
+     * 第一页评论, 不含用户昵称头像, 昵称修改后不必删除
+     */
+    @Override
+    @HmdpCacheable(prefix = RedisConstants.CACHE_BLOG_COMMENTS_KEY, ttl = RedisConstants.CACHE_BLOG_COMMENTS_TTL)
+    public List<BlogComments> queryFirstPage(Long blogId) {
+        return loadPage(blogId, null);
+    }
+
+    /**
+     * 两次查询取出一页: 一级评论走 idx_blog_parent(blog_id, parent_id, id), 回复走 idx_parent_id(parent_id, id)
+     */
+    private List<BlogComments> loadPage(Long blogId, Long lastId) {
+        List<BlogComments> parents = query()
+                .eq("blog_id", blogId)
+                .eq("parent_id", 0)
+                .lt(lastId != null, "id", lastId)
+                .and(visible())
+                .orderByDesc("id")
+                .last("limit " + SystemConstants.MAX_PAGE_SIZE)
+                .list();
+        if (parents.isEmpty()) {
+            return parents;
+        }
+        Map<Long, BlogComments> byId = new LinkedHashMap<>();
+        for (BlogComments parent : parents) {
+            parent.setReplies(new ArrayList<>());
+            byId.put(parent.getId(), parent);
+        }
+        List<BlogComments> replies = query()
+                .in("parent_id", byId.keySet())
+                .and(visible())
+                .orderByAsc("id")
+                .list();
+        for (BlogComments reply : replies) {
+            BlogComments parent = byId.get(reply.getParentId());
+            if (parent != null) {
+                parent.getReplies().add(reply);
+            }
+        }
+        return parents;
+    }
+
+    private static Consumer<QueryWrapper<BlogComments>> visible() {
+        return w -> w.isNull("status").or().lt("status", STATUS_HIDDEN);
+    }
+
+    /**
+     * 一级评论和回复的作者一次批量查询
+     */
+    private void fillUsers(List<BlogComments> comments) {
+        Set<Long> userIds = new HashSet<>();
+        for (BlogComments comment : comments) {
+            userIds.add(comment.getUserId());
+            if (comment.getReplies() != null) {
+                comment.getReplies().forEach(reply -> userIds.add(reply.getUserId()));
+            }
+        }
+        Map<Long, UserDTO> users = userService.queryUserSummaries(userIds);
+        for (BlogComments comment : comments) {
+            fillUser(comment, users);
+            if (comment.getReplies() != null) {
+                comment.getReplies().forEach(reply -> fillUser(reply, users));
+            }
+        }
+    }
+
+    private static void fillUser(BlogComments comment, Map<Long, UserDTO> users) {
+        UserDTO user = users.get(comment.getUserId());
+        if (user != null) {
+            comment.setName(user.getNickName());
+            comment.setIcon(user.getIcon());
+        }
+    }
+
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
 }
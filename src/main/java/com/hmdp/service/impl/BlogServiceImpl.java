@@ -1,11 +1,42 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IUserService;
+import com.hmdp.job.BlogLikeFlusher;
+import com.hmdp.job.FeedFanout;
+import com.hmdp.utils.BlogHotRanking;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CounterType;
+import com.hmdp.utils.FeedMerger;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.WriteBehindCounter;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +48,340 @@ import org.springframework.stereotype.Service;
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
 
+    @Resource
+    private IUserService userService;
+    @Resource
+    private WriteBehindCounter writeBehindCounter;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private BlogLikeFlusher blogLikeFlusher;
+    @Resource
+    private BlogHotRanking blogHotRanking;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private FeedFanout feedFanout;
+
+    /**
+     * 保存博文, 加入热门排行, 并异步推送到粉丝的收件箱
+     * 探店博文计入店铺的评论数
+     */
+    @Override
+    public Result saveBlog(Blog blog) {
+        save(blog);
+        if (blog.getShopId() != null) {
+            writeBehindCounter.increment(CounterType.SHOP_COMMENTS, blog.getShopId(), 1);
+        }
+        blogHotRanking.add(blog.getId());
+        feedFanout.push(blog.getUserId(), blog.getId(), System.currentTimeMillis());
+        return Result.ok(blog.getId());
+    }
+
+    /**
+     * 滚动查询关注的人发布的博文, 按发布时间降序
+     * 收件箱 feed:{userId} 与关注的大V的发件箱多路归并, 归并结果短暂缓存
+     *
+     * @param userId 当前用户
+     * @param max 上一页返回的 minTime, 第一页不传
+     * @param offset 上一页返回的 offset, 即上一页中与 minTime 时间戳相同的条数
+     * @return Result 博文列表, minTime 为本页最早的时间戳, offset 为本页中与之相同的条数
+     */
+    @Override
+    public Result queryBlogOfFollow(Long userId, Long max, Integer offset) {
+        long lastTime = max == null ? Long.MAX_VALUE : max;
+        int os = offset == null ? 0 : offset;
+        String pageKey = RedisConstants.FEED_PAGE_KEY + userId + ":" + lastTime + ":" + os;
+        ScrollResult r;
+        String cached = stringRedisTemplate.opsForValue().get(pageKey);
+        if (cached != null) {
+            JSONObject json = JSONUtil.parseObj(cached);
+            r = new ScrollResult();
+            r.setList(json.getJSONArray("list").toList(Long.class));
+            r.setMinTime(json.getLong("minTime"));
+            r.setOffset(json.getInt("offset"));
+        } else {
+            long begin = System.nanoTime();
+            List<Long> bigFollowees = feedFanout.bigFolloweesOf(userId);
+            List<String> keys = new ArrayList<>(bigFollowees.size() + 1);
+            keys.add(RedisConstants.FEED_KEY + userId);
+            bigFollowees.forEach(authorId -> keys.add(RedisConstants.FEED_OUTBOX_KEY + authorId));
+            // 每一路取前 offset + 每页条数, 归并时跳过上一页已返回的同时间戳博文
+            int limit = os + SystemConstants.MAX_PAGE_SIZE;
+            List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection redis = (StringRedisConnection) connection;
+                for (String key : keys) {
+                    redis.zRevRangeByScoreWithScores(key, 0, lastTime, 0, limit);
+                }
+                return null;
+            });
+            List<List<ZSetOperations.TypedTuple<String>>> sources = new ArrayList<>(results.size());
+            for (Object result : results) {
+                @SuppressWarnings("unchecked")
+                Set<ZSetOperations.TypedTuple<String>> tuples = (Set<ZSetOperations.TypedTuple<String>>) result;
+                sources.add(tuples == null ? Collections.emptyList() : new ArrayList<>(tuples));
+            }
+            r = FeedMerger.merge(sources, lastTime, os, SystemConstants.MAX_PAGE_SIZE);
+            stringRedisTemplate.opsForValue().set(pageKey, JSONUtil.toJsonStr(r),
+                    RedisConstants.FEED_PAGE_TTL, TimeUnit.SECONDS);
+            feedFanout.recordRead(!bigFollowees.isEmpty(), System.nanoTime() - begin);
+        }
+        @SuppressWarnings("unchecked")
+        List<Long> ids = (List<Long>) r.getList();
+        // 已删除的博文直接跳过, 游标仍按归并结果计算
+        r.setList(decorate(loadBlogs(ids)));
+        return Result.ok(r);
+    }
+
+    @Override
+    public Result queryBlogById(Long id) {
+        List<Blog> blogs = loadBlogs(Collections.singletonList(id));
+        if (blogs.isEmpty()) {
+            return Result.fail("博文不存在");
+        }
+        return Result.ok(decorate(blogs).get(0));
+    }
+
+    /**
+     * 点赞或取消点赞
+     * blog:liked:{id} 以点赞时间为分数保存点赞用户, ZADD/ZREM 的返回值决定是否改动计数, 重复请求不会重复计数;
+     * 点赞数走计数写回, 点赞记录由 {@link BlogLikeFlusher} 异步写入 tb_blog_like;
+     * 先经博文缓存确认博文存在, 不存在的id会缓存空值, 不会为它创建点赞集合和计数
+     */
+    @Override
+    public Result likeBlog(Long id) {
+        List<Blog> blogs = loadBlogs(Collections.singletonList(id));
+        if (blogs.isEmpty()) {
+            return Result.fail("博文不存在");
+        }
+        Blog blog = blogs.get(0);
+        Long userId = UserHolder.getUser().getId();
+        String key = RedisConstants.BLOG_LIKED_KEY + id;
+        String member = userId.toString();
+        if (stringRedisTemplate.opsForZSet().score(key, member) == null) {
+            long now = System.currentTimeMillis();
+            if (Boolean.TRUE.equals(stringRedisTemplate.opsForZSet().add(key, member, now))) {
+                writeBehindCounter.increment(CounterType.BLOG_LIKED, id, 1);
+                blogLikeFlusher.record(id, userId, now);
+                updateRanking(blog, 1);
+            }
+        } else {
+            Long removed = stringRedisTemplate.opsForZSet().remove(key, member);
+            if (removed != null && removed > 0) {
+                writeBehindCounter.increment(CounterType.BLOG_LIKED, id, -1);
+                blogLikeFlusher.record(id, userId, 0);
+                updateRanking(blog, -1);
+            }
+        }
+        return Result.ok();
+    }
+
+    /**
+     * 衰减排行需要博文的发布时间
+     */
+    private void updateRanking(Blog blog, int delta) {
+        blogHotRanking.onLike(blog.getId(), delta, blogHotRanking.isDecaying() ? blog.getCreateTime() : null);
+    }
+
+    /**
+     * 最早点赞的5个用户, 一次 ZRANGE 加一次用户摘要批量查询
+     */
+    @Override
+    public Result queryBlogLikes(Long id) {
+        Set<String> top5 = stringRedisTemplate.opsForZSet().range(RedisConstants.BLOG_LIKED_KEY + id, 0, 4);
+        if (top5 == null || top5.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        List<Long> ids = top5.stream().map(Long::valueOf).collect(Collectors.toList());
+        // 按点赞先后排列
+        List<UserDTO> result = new ArrayList<>(userService.queryUserSummaries(ids).values());
+        return Result.ok(result);
+    }
+
+    /**
+     * 按名次分页查询热门博文, 排行未构建时退回数据库
+     *
+     * @param current 页码, 从1开始, 超过 {@link SystemConstants#MAX_PAGE_NUMBER} 时返回空页
+     */
+    @Override
+    public Result queryHotBlog(Integer current) {
+        if (current == null || current < 1) {
+            return Result.fail("页码错误");
+        }
+        if (current > SystemConstants.MAX_PAGE_NUMBER) {
+            return Result.ok(Collections.emptyList());
+        }
+        List<Blog> records;
+        if (blogHotRanking.exists()) {
+            long start = (long) (current - 1) * SystemConstants.MAX_PAGE_SIZE;
+            records = loadBlogs(blogHotRanking.page(start, start + SystemConstants.MAX_PAGE_SIZE - 1));
+        } else {
+            // 只取当前页, 不查总数
+            records = query()
+                    .orderByDesc("liked")
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false))
+                    .getRecords();
+        }
+        return Result.ok(decorate(records));
+    }
+
+    /**
+     * 按排行分数滚动查询热门博文
+     * 排行未构建时退回数据库, 按 (liked, id) 降序从上一页末尾向后查找, 走 idx_liked 索引, 分数即点赞数
+     *
+     * @param max 上一页的最小分数, 第一页不传
+     * @param offset 上一页返回的 offset, 读排行时跳过与 max 同分的条数
+     * @param lastId 上一页最后一条的id, 读数据库时与 max 一起定位, 不传时从 max 分的第一条开始
+     * @return Result 博文列表, minTime 为本页最小分数, offset 为已返回的与之同分的条数, lastId 为本页最后一条的id
+     */
+    @Override
+    public Result scrollHotBlog(Long max, Integer offset, Long lastId) {
+        long lastScore = max == null ? Long.MAX_VALUE : max;
+        int os = offset == null ? 0 : offset;
+        ScrollResult r;
+        List<Blog> blogs;
+        if (blogHotRanking.exists()) {
+            r = blogHotRanking.scroll(lastScore, os, SystemConstants.MAX_PAGE_SIZE);
+            @SuppressWarnings("unchecked")
+            List<Long> ids = (List<Long>) r.getList();
+            blogs = loadBlogs(ids);
+        } else {
+            long seekId = lastId == null ? Long.MAX_VALUE : lastId;
+            // (liked, id) < (max, lastId), 不用 offset 跳过已读的行
+            blogs = query()
+                    .and(max != null, w -> w.lt("liked", max)
+                            .or(o -> o.eq("liked", max).lt("id", seekId)))
+                    .orderByDesc("liked", "id")
+                    .last("limit " + SystemConstants.MAX_PAGE_SIZE)
+                    .list();
+            r = new ScrollResult();
+            long minScore = lastScore;
+            int same = 0;
+            for (Blog blog : blogs) {
+                long liked = blog.getLiked() == null ? 0 : blog.getLiked();
+                if (liked == minScore) {
+                    same++;
+                } else {
+                    minScore = liked;
+                    same = 1;
+                }
+            }
+            // offset 仍按排行的语义返回, 排行构建完成后可以直接接着翻页
+            r.setMinTime(minScore);
+            r.setOffset(minScore == lastScore ? same + os : same);
+        }
+        if (!blogs.isEmpty()) {
+            r.setLastId(blogs.get(blogs.size() - 1).getId());
+        }
+        r.setList(decorate(blogs));
+        return Result.ok(r);
+    }
+
+    @Override
+    public Result queryMyBlog(Long userId, Integer current) {
+        Page<Blog> page = query()
+                .eq("user_id", userId)
+                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
+        return Result.ok(decorate(page.getRecords()));
+    }
+
+    /**
+     * 滚动查询用户的博文, 按id降序, 走 idx_user_id(user_id, id) 索引
+     *
+     * @param userId 用户id
+     * @param lastId 上一页最后一条的id, 第一页不传
+     * @return Result 博文列表, lastId 为本页最后一条的id
+     */
+    @Override
+    public Result scrollMyBlog(Long userId, Long lastId) {
+        List<Blog> blogs = query()
+                .eq("user_id", userId)
+                .lt(lastId != null, "id", lastId)
+                .orderByDesc("id")
+                .last("limit " + SystemConstants.MAX_PAGE_SIZE)
+                .list();
+        ScrollResult r = new ScrollResult();
+        r.setList(decorate(blogs));
+        if (!blogs.isEmpty()) {
+            r.setLastId(blogs.get(blogs.size() - 1).getId());
+        }
+        return Result.ok(r);
+    }
+
+    /**
+     * 批量读取博文, 一次 MGET, 未命中的一次 IN 查询
+     *
+     * @return 博文, 按 ids 的顺序, 不存在的跳过
+     */
+    private List<Blog> loadBlogs(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<Long, Blog> blogs = cacheClient.queryBatch(RedisConstants.CACHE_BLOG_KEY, ids, Blog.class,
+                missed -> listByIds(missed).stream().collect(Collectors.toMap(Blog::getId, Function.identity())),
+                RedisConstants.CACHE_BLOG_TTL, TimeUnit.MINUTES);
+        return new ArrayList<>(blogs.values());
+    }
+
+    /**
+     * 补全列表展示需要的字段: 作者昵称与头像, 尚未写回数据库的点赞数、评论数, 当前用户是否点赞
+     */
+    private List<Blog> decorate(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return blogs;
+        }
+        fillUsers(blogs);
+        fillIsLike(blogs);
+        List<Long> ids = blogs.stream().map(Blog::getId).collect(Collectors.toList());
+        Map<Long, Long> liked = writeBehindCounter.pending(CounterType.BLOG_LIKED, ids);
+        Map<Long, Long> comments = writeBehindCounter.pending(CounterType.BLOG_COMMENTS, ids);
+        for (Blog blog : blogs) {
+            Long d = liked.get(blog.getId());
+            if (d != null) {
+                blog.setLiked((int) Math.max(0, (blog.getLiked() == null ? 0 : blog.getLiked()) + d));
+            }
+            d = comments.get(blog.getId());
+            if (d != null) {
+                blog.setComments((int) Math.max(0, (blog.getComments() == null ? 0 : blog.getComments()) + d));
+            }
+        }
+        return blogs;
+    }
+
+    /**
+     * 一次管道查询当前用户在每篇博文点赞集合中的分数, 未登录时全部为 false
+     */
+    private void fillIsLike(List<Blog> blogs) {
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            blogs.forEach(blog -> blog.setIsLike(false));
+            return;
+        }
+        String member = user.getId().toString();
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection redis = (StringRedisConnection) connection;
+            for (Blog blog : blogs) {
+                redis.zScore(RedisConstants.BLOG_LIKED_KEY + blog.getId(), member);
+            }
+            return null;
+        });
+        for (int i = 0; i < blogs.size(); i++) {
+            blogs.get(i).setIsLike(scores.get(i) != null);
+        }
+    }
+
+    /**
+     * 一次批量查询整页博文的作者
+     */
+    private void fillUsers(List<Blog> blogs) {
+        Map<Long, UserDTO> users = userService.queryUserSummaries(
+                blogs.stream().map(Blog::getUserId).collect(Collectors.toSet()));
+        for (Blog blog : blogs) {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
+    }
 }
@@ -1,20 +1,167 @@
 package com.hmdp.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Follow;
+import com.hmdp.event.FollowChangeEvent;
 import com.hmdp.mapper.FollowMapper;
 import com.hmdp.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * <p>
  *  服务实现类
  * </p>
+ * 关注关系以 tb_follow 为准, 同时在 redis 的 follows:{userId} 中保存一份, 供判断是否关注、共同关注使用;
+ * 写库提交后再同步集合, 集合丢失时由 FollowSetRebuilder 从表中重建
  *
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> implements IFollowService {
 
+    // 批量判断一次最多的用户数
+    private static final int MAX_BATCH = 100;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IUserService userService;
+    @Resource
+    private ApplicationEventPublisher publisher;
+
+    /**
+     * 关注或取消关注, 重复请求结果相同
+     *
+     * @param followUserId 被关注的用户
+     * @param isFollow true 关注, false 取消关注
+     * @return Result 操作结果
+     */
+    @Override
+    @Transactional
+    public Result follow(Long followUserId, Boolean isFollow) {
+        Long userId = UserHolder.getUser().getId();
+        if (userId.equals(followUserId)) {
+            return Result.fail("不能关注自己");
+        }
+        boolean follow = Boolean.TRUE.equals(isFollow);
+        // 经用户缓存确认被关注的用户存在, 取消关注不检查, 便于清理已注销用户的关注
+        if (follow && userService.queryUserById(followUserId) == null) {
+            return Result.fail("用户不存在");
+        }
+        boolean changed = follow
+                ? baseMapper.insertIgnore(userId, followUserId) > 0
+                : remove(new QueryWrapper<Follow>().eq("user_id", userId).eq("follow_user_id", followUserId));
+        // 无论本次是否改动了行都同步一次集合, 顺带修复不一致
+        afterCommit(() -> {
+            writeSet(userId, followUserId, follow);
+            if (changed) {
+                publisher.publishEvent(new FollowChangeEvent(userId, followUserId, follow));
+            }
+        });
+        return Result.ok();
+    }
+
+    @Override
+    public Result isFollow(Long followUserId) {
+        Long userId = UserHolder.getUser().getId();
+        Boolean member = stringRedisTemplate.opsForSet()
+                .isMember(RedisConstants.FOLLOWS_KEY + userId, followUserId.toString());
+        return Result.ok(Boolean.TRUE.equals(member));
+    }
+
+    /**
+     * 一次管道判断是否关注了多个用户, 用于用户列表、博文列表的关注按钮
+     *
+     * @return Result 用户id -> 是否关注
+     */
+    @Override
+    public Result isFollowBatch(List<Long> followUserIds) {
+        if (followUserIds.isEmpty()) {
+            return Result.ok(Collections.emptyMap());
+        }
+        if (followUserIds.size() > MAX_BATCH) {
+            return Result.fail("一次最多查询" + MAX_BATCH + "个用户");
+        }
+        String key = RedisConstants.FOLLOWS_KEY + UserHolder.getUser().getId();
+        List<Object> members = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection redis = (StringRedisConnection) connection;
+            for (Long id : followUserIds) {
+                redis.sIsMember(key, id.toString());
+            }
+            return null;
+        });
+        Map<Long, Boolean> result = new LinkedHashMap<>(followUserIds.size() * 2);
+        for (int i = 0; i < followUserIds.size(); i++) {
+            result.put(followUserIds.get(i), Boolean.TRUE.equals(members.get(i)));
+        }
+        return Result.ok(result);
+    }
+
+    /**
+     * 当前用户与目标用户的共同关注, 一次 SINTER 加一次用户摘要批量查询
+     */
+    @Override
+    public Result followCommons(Long id) {
+        Long userId = UserHolder.getUser().getId();
+        Set<String> common = stringRedisTemplate.opsForSet()
+                .intersect(RedisConstants.FOLLOWS_KEY + userId, RedisConstants.FOLLOWS_KEY + id);
+        if (common == null || common.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        List<Long> ids = common.stream().map(Long::valueOf).collect(Collectors.toList());
+        List<UserDTO> users = new ArrayList<>(userService.queryUserSummaries(ids).values());
+        return Result.ok(users);
+    }
+
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private void writeSet(Long userId, Long followUserId, boolean follow) {
+        String key = RedisConstants.FOLLOWS_KEY + userId;
+        try {
+            if (follow) {
+                stringRedisTemplate.opsForSet().add(key, followUserId.toString());
+            } else {
+                stringRedisTemplate.opsForSet().remove(key, followUserId.toString());
+            }
+        } catch (Exception e) {
+            // 数据库已提交, 集合等待重建时修正
+            log.error("关注集合同步失败 {} -> {}", userId, followUserId, e);
+        }
+    }
 }
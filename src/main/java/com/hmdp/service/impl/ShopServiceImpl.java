@@ -1,28 +1,46 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.util.BooleanUtil;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.hmdp.annotation.CacheStrategy;
+import com.hmdp.annotation.HmdpCacheEvict;
+import com.hmdp.annotation.HmdpCacheable;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CounterType;
 import com.hmdp.utils.RedisConstants;
-import com.hmdp.utils.RedisData;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopNameIndex;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.WriteBehindCounter;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.aop.framework.AopContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.geo.Circle;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResult;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
 
@@ -38,13 +56,22 @@ import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
 @Slf4j
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
-    @Resource
-    private StringRedisTemplate stringRedisTemplate;
-
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private static final String GEO_ENGINE_LOCAL = "local";
 
     @Resource
     private CacheClient cacheClient;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+    @Resource
+    private ShopNameIndex shopNameIndex;
+    @Resource
+    private WriteBehindCounter writeBehindCounter;
+
+    // 附近查询首选引擎: redis 或 local, 首选不可用时换另一个
+    @Value("${hmdp.geo.engine:redis}")
+    private String geoEngine;
     /**
      * 根据店铺ID查询店铺信息，支持缓存穿透和缓存击穿处理
      *
@@ -53,81 +80,26 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
      */
     @Override
     public Result queryById(Long id) {
-        // 实现缓存穿透的方法
-        //queryWithPassThrough( id);
-        //实现缓存击穿的方法
-//        Shop shop = queryWithMutex(id);
-//        if (shop == null) {
-//            return Result.fail("店铺不存在");
-//        }
-       Shop shop = cacheClient.queryWithPassThrough(RedisConstants.CACHE_SHOP_KEY ,id,Shop.class,this::getById,CACHE_SHOP_TTL, TimeUnit.MINUTES);
-//        Shop shop = cacheClient.queryWithLogicalExpire(
-//                RedisConstants.CACHE_SHOP_KEY,
-//                id,
-//                Shop.class,
-//                this::getById,
-//                20L,
-//                TimeUnit.MINUTES
-//        );
+        // 缓存策略由 getShopById 上的注解决定, 需通过代理对象调用
+        IShopService proxy = (IShopService) AopContext.currentProxy();
+        Shop shop = proxy.getShopById(id);
+        if (shop != null) {
+            mergeCounters(Collections.singletonList(shop));
+        }
         return Result.ok(shop);
-
-
     }
 
     /**
-     * 使用互斥锁方式解决缓存击穿问题
+     * 查询店铺, 结果经 CacheClient 缓存
+     * 改用互斥锁或逻辑过期只需修改 strategy
      *
      * @param id 店铺ID
      * @return Shop 店铺对象，如果不存在则返回null
      */
-    private Shop queryWithMutex(Long id) {
-        // 1.在redis中查询缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOP_KEY + id);
-        // 2.缓存命中.返回
-        if (StrUtil.isNotBlank(shopJson)) {
-            log.debug("查询缓存成功");
-            Shop shop = JSONUtil.toBean(shopJson, Shop.class);
-            return shop;
-        }
-        if (shopJson != null) {
-            return null;
-        }
-        // 3.缓存未命中
-        // 1.获取互斥锁
-        String lock = RedisConstants.LOCK_SHOP_KEY + id;
-        Shop shop = null;
-        try {
-            boolean isLock = tryLock(lock);
-            // 判断是否获取成功
-            if (!isLock) {
-                // 2.获取锁失败
-                // 等待5秒再重试 休眠,加重试
-                Thread.sleep(50);
-                return queryWithMutex( id);
-            }
-            // 3.获取锁成功
-            // 4.查询数据库
-            shop = getById(id);
-            // 模拟重建耗时
-            Thread.sleep(200);
-            if (shop == null) {
-                // 缓存空值
-                stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_KEY + id, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
-                // 5.数据库不存在,返回错误
-                return null;
-            }
-            // 6.数据库存在,写入缓存,并设置超时时间
-            stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(shop), CACHE_SHOP_TTL, TimeUnit.MINUTES);
-            // 释放互斥锁
-
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        } finally {
-            unLock(lock);
-        }
-        // 7.返回
-        return shop;
-
+    @Override
+    @HmdpCacheable(prefix = RedisConstants.CACHE_SHOP_KEY, strategy = CacheStrategy.PASS_THROUGH, ttl = CACHE_SHOP_TTL)
+    public Shop getShopById(Long id) {
+        return getById(id);
     }
 
     /**
@@ -138,116 +110,286 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
      */
     @Override
     @Transactional
+    @HmdpCacheEvict(prefix = RedisConstants.CACHE_SHOP_KEY, key = "#shop.id")
     public Result update(Shop shop) {
-        updateById( shop);
         if (shop.getId() == null) {
             return Result.fail("店铺不存在");
         }
-        stringRedisTemplate.delete(RedisConstants.CACHE_SHOP_KEY + shop.getId());
+        Shop old = getById(shop.getId());
+        if (old == null) {
+            return Result.fail("店铺不存在");
+        }
+        updateById(shop);
+        // 请求体可能只带部分字段, 以更新后的整行为准同步坐标
+        syncGeo(old, getById(shop.getId()));
         log.debug("更新缓存成功");
         return Result.ok();
     }
 
     /**
-     * 使用缓存空值方式解决缓存穿透问题
+     * 新增店铺, 并删除该id上可能存在的空值缓存
      *
-     * @param id 店铺ID
-     * @return Shop 店铺对象，如果不存在则返回null
+     * @param shop 店铺对象
+     * @return Result 店铺id
+     */
+    @Override
+    @Transactional
+    @HmdpCacheEvict(prefix = RedisConstants.CACHE_SHOP_KEY, key = "#shop.id")
+    public Result saveShop(Shop shop) {
+        save(shop);
+        syncGeo(null, shop);
+        return Result.ok(shop.getId());
+    }
+
+    /**
+     * 按类型查询店铺, 带坐标时按距离由近到远返回
+     * 每页取前 current*pageSize 个再跳过前几页, 店铺详情一次批量查询
+     *
+     * @param typeId 店铺类型
+     * @param current 页码, 从1开始, 超过 {@link SystemConstants#MAX_PAGE_NUMBER} 时返回空页
+     * @param x 经度
+     * @param y 纬度
+     * @return Result 店铺列表
      */
-    public Shop queryWithPassThrough(Long id) {
-        // 1.在redis中查询缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOP_KEY + id);
-        // 2.缓存命中.返回
-        if (StrUtil.isNotBlank(shopJson)) {
-            log.debug("查询缓存成功");
-            Shop shop = JSONUtil.toBean(shopJson, Shop.class);
-            return shop;
+    @Override
+    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
+        if (current == null || current < 1) {
+            return Result.fail("页码错误");
         }
-        if (shopJson != null) {
-            return null;
+        if (current > SystemConstants.MAX_PAGE_NUMBER) {
+            return Result.ok(Collections.emptyList());
         }
-        // 3.缓存未命中
-        // 4.查询数据库
-        Shop shop = getById(id);
-        if (shop == null) {
-            // 缓存空值
-            stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_KEY + id, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
-            // 5.数据库不存在,返回错误
-            return null;
+        List<ShopGeoIndex.Hit> hits = x == null || y == null
+                ? null : nearby(typeId, x, y, current * SystemConstants.DEFAULT_PAGE_SIZE);
+        if (hits == null) {
+            // 没有坐标或两种引擎都不可用, 按类型分页
+            Page<Shop> page = query()
+                    .eq("type_id", typeId)
+                    .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE, false));
+            return Result.ok(mergeCounters(page.getRecords()));
+        }
+        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        if (hits.size() <= from) {
+            return Result.ok(Collections.emptyList());
+        }
+        hits = hits.subList(from, hits.size());
+        List<Long> ids = new ArrayList<>(hits.size());
+        for (ShopGeoIndex.Hit hit : hits) {
+            ids.add(hit.getId());
+        }
+        Map<Long, Shop> shopMap = listByIds(ids).stream().collect(Collectors.toMap(Shop::getId, Function.identity()));
+        List<Shop> shops = new ArrayList<>(ids.size());
+        for (ShopGeoIndex.Hit hit : hits) {
+            Shop shop = shopMap.get(hit.getId());
+            if (shop != null) {
+                shop.setDistance(hit.getDistance());
+                shops.add(shop);
+            }
         }
-        // 6.数据库存在,写入缓存,并设置超时时间
-        stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(shop), CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        // 7.返回
-        return shop;
+        return Result.ok(mergeCounters(shops));
+    }
 
+    /**
+     * 按名称关键字分页查询, 名称索引就绪时按相关度排序, 否则退回 LIKE
+     *
+     * @param name 名称关键字
+     * @param current 页码, 从1开始, 超过 {@link SystemConstants#MAX_PAGE_NUMBER} 时返回空页
+     * @return Result 店铺列表
+     */
+    @Override
+    public Result queryShopByName(String name, Integer current) {
+        if (current == null || current < 1) {
+            return Result.fail("页码错误");
+        }
+        if (current > SystemConstants.MAX_PAGE_NUMBER) {
+            return Result.ok(Collections.emptyList());
+        }
+        if (StrUtil.isBlank(name) || !shopNameIndex.isReady()) {
+            Page<Shop> page = query()
+                    .like(StrUtil.isNotBlank(name), "name", name)
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
+            return Result.ok(mergeCounters(page.getRecords()));
+        }
+        ScrollResult r = shopNameIndex.search(name, Long.MAX_VALUE, 0, current * SystemConstants.MAX_PAGE_SIZE);
+        List<?> ids = r.getList();
+        int from = (current - 1) * SystemConstants.MAX_PAGE_SIZE;
+        if (ids.size() <= from) {
+            return Result.ok(Collections.emptyList());
+        }
+        return Result.ok(mergeCounters(listByIdsInOrder(castIds(ids.subList(from, ids.size())))));
     }
 
     /**
-     * 使用逻辑过期方式解决缓存击穿问题
+     * 按名称关键字滚动查询, 按相关度降序、id升序
+     * 名称索引未就绪时退回 LIKE 并按id游标翻页, 已按id翻页的请求继续走 SQL
      *
-     * @param id 店铺ID
-     * @return Shop 店铺对象，如果不存在则返回null
+     * @param name 名称关键字
+     * @param max 上一页最后一条的相关度, 第一页不传
+     * @param offset 上一页中与 max 相关度相同的条数
+     * @param lastId 退回 SQL 时上一页最后一条的id
+     * @return Result 店铺列表及下一页的 max、offset 或 lastId
      */
-    private Shop queryWithLogicalExpire(Long id) {
-        // 1.在redis中查询缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOP_KEY + id);
-        // 2.缓存未命中.返回
-        if (StrUtil.isBlank(shopJson)) {
-            return null;
+    @Override
+    public Result scrollShopByName(String name, Long max, Integer offset, Long lastId) {
+        if (StrUtil.isNotBlank(name) && shopNameIndex.isReady() && lastId == null) {
+            long lastScore = max == null ? Long.MAX_VALUE : max;
+            ScrollResult r = shopNameIndex.search(name, lastScore, offset == null ? 0 : offset, SystemConstants.MAX_PAGE_SIZE);
+            r.setList(mergeCounters(listByIdsInOrder(castIds(r.getList()))));
+            return Result.ok(r);
         }
-        // 3.缓存命中
-        // json -> 对象
-        RedisData redisData = JSONUtil.toBean(shopJson, RedisData.class);
-        JSONObject jsonData = (JSONObject) redisData.getData();
-        Shop shop = jsonData.toBean(Shop.class);
-        LocalDateTime expireTime = redisData.getExpireTime();
-        // 判断是否过期
-        if (expireTime.isAfter(LocalDateTime.now())) {
-            // 缓存未过期.直接返回
-            return shop;
+        List<Shop> shops = query()
+                .like(StrUtil.isNotBlank(name), "name", name)
+                .gt(lastId != null, "id", lastId)
+                .orderByAsc("id")
+                .last("limit " + SystemConstants.MAX_PAGE_SIZE)
+                .list();
+        ScrollResult r = new ScrollResult();
+        r.setList(mergeCounters(shops));
+        if (!shops.isEmpty()) {
+            r.setLastId(shops.get(shops.size() - 1).getId());
         }
-        // 缓存已过期.获取锁
-        String lock = RedisConstants.LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lock);
+        return Result.ok(r);
+    }
 
-        if (isLock) {
-            // 获取成功,创建新的独立线程,重建缓存
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    // 创建重建缓存
-                    saveShop2Redis(id, 20L);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    // 释放锁
-                    unLock(lock);
-                }
-            });
+    /**
+     * 把尚未写回数据库的销量、评论数加到店铺上
+     */
+    private List<Shop> mergeCounters(List<Shop> shops) {
+        if (shops.isEmpty()) {
+            return shops;
         }
-        // 获取锁失败.返回数据
-        // 7.返回
-        return shop;
+        List<Long> ids = shops.stream().map(Shop::getId).collect(Collectors.toList());
+        Map<Long, Long> sold = writeBehindCounter.pending(CounterType.SHOP_SOLD, ids);
+        Map<Long, Long> comments = writeBehindCounter.pending(CounterType.SHOP_COMMENTS, ids);
+        for (Shop shop : shops) {
+            Long d = sold.get(shop.getId());
+            if (d != null) {
+                shop.setSold((int) Math.max(0, (shop.getSold() == null ? 0 : shop.getSold()) + d));
+            }
+            d = comments.get(shop.getId());
+            if (d != null) {
+                shop.setComments((int) Math.max(0, (shop.getComments() == null ? 0 : shop.getComments()) + d));
+            }
+        }
+        return shops;
+    }
+
+    /**
+     * 批量查询店铺并保持 ids 的顺序
+     */
+    private List<Shop> listByIdsInOrder(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<Long, Shop> shopMap = listByIds(ids).stream().collect(Collectors.toMap(Shop::getId, Function.identity()));
+        List<Shop> shops = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Shop shop = shopMap.get(id);
+            if (shop != null) {
+                shops.add(shop);
+            }
+        }
+        return shops;
+    }
 
+    @SuppressWarnings("unchecked")
+    private static List<Long> castIds(List<?> ids) {
+        return (List<Long>) ids;
     }
 
     /**
-     * 尝试获取分布式锁
+     * 按类型滚动查询店铺, 按id升序, 走 foreign_key_type(type_id, id) 索引
      *
-     * @param key 锁的键名
-     * @return boolean 是否获取成功
+     * @param typeId 店铺类型
+     * @param lastId 上一页最后一条的id, 第一页不传
+     * @return Result 店铺列表, lastId 为本页最后一条的id
      */
-    private boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10L, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue( flag);
+    @Override
+    public Result scrollShopByType(Integer typeId, Long lastId) {
+        List<Shop> shops = query()
+                .eq("type_id", typeId)
+                .gt(lastId != null, "id", lastId)
+                .orderByAsc("id")
+                .last("limit " + SystemConstants.DEFAULT_PAGE_SIZE)
+                .list();
+        ScrollResult r = new ScrollResult();
+        r.setList(mergeCounters(shops));
+        if (!shops.isEmpty()) {
+            r.setLastId(shops.get(shops.size() - 1).getId());
+        }
+        return Result.ok(r);
+    }
+
+    /**
+     * 查询半径内最近的店铺
+     * 首选引擎由 hmdp.geo.engine 决定, 不可用时换另一个
+     *
+     * @return 店铺id及距离, 两种引擎都不可用时返回null
+     */
+    private List<ShopGeoIndex.Hit> nearby(Integer typeId, double x, double y, int limit) {
+        boolean localReady = shopGeoIndex.isReady();
+        if (GEO_ENGINE_LOCAL.equals(geoEngine) && localReady) {
+            return shopGeoIndex.search(typeId.longValue(), x, y, SystemConstants.SHOP_NEARBY_RADIUS, limit);
+        }
+        String key = RedisConstants.SHOP_GEO_KEY + typeId;
+        try {
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+                // 坐标尚未导入 redis
+                return localReady ? shopGeoIndex.search(typeId.longValue(), x, y, SystemConstants.SHOP_NEARBY_RADIUS, limit) : null;
+            }
+            GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().radius(key,
+                    new Circle(new Point(x, y), new Distance(SystemConstants.SHOP_NEARBY_RADIUS)),
+                    RedisGeoCommands.GeoRadiusCommandArgs.newGeoRadiusArgs().includeDistance().sortAscending().limit(limit));
+            List<ShopGeoIndex.Hit> hits = new ArrayList<>();
+            if (results != null) {
+                for (GeoResult<RedisGeoCommands.GeoLocation<String>> result : results.getContent()) {
+                    hits.add(new ShopGeoIndex.Hit(Long.parseLong(result.getContent().getName()), result.getDistance().getValue()));
+                }
+            }
+            return hits;
+        } catch (Exception e) {
+            if (!localReady) {
+                throw e;
+            }
+            log.warn("redis GEO 查询失败, 改用本地索引 {}", key, e);
+            return shopGeoIndex.search(typeId.longValue(), x, y, SystemConstants.SHOP_NEARBY_RADIUS, limit);
+        }
     }
 
     /**
-     * 释放分布式锁
+     * 事务提交后同步店铺在 GEO 中的坐标, 类型变化时从原类型中移除
      *
-     * @param key 锁的键名
+     * @param old 修改前的店铺, 新增时为null
+     * @param shop 修改后的店铺
      */
-    private void unLock(String key) {
-        stringRedisTemplate.delete(key);
+    private void syncGeo(Shop old, Shop shop) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            writeGeo(old, shop);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                writeGeo(old, shop);
+            }
+        });
+    }
+
+    private void writeGeo(Shop old, Shop shop) {
+        String member = shop.getId().toString();
+        try {
+            if (old != null && old.getTypeId() != null && !old.getTypeId().equals(shop.getTypeId())) {
+                stringRedisTemplate.opsForGeo().remove(RedisConstants.SHOP_GEO_KEY + old.getTypeId(), member);
+            }
+            if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+                return;
+            }
+            stringRedisTemplate.opsForGeo().add(RedisConstants.SHOP_GEO_KEY + shop.getTypeId(),
+                    new Point(shop.getX(), shop.getY()), member);
+        } catch (Exception e) {
+            // 数据库已提交, 坐标可由 ShopGeoLoader 重新导入
+            log.error("同步店铺坐标失败 {}", member, e);
+        }
     }
 
     /**
@@ -260,9 +402,6 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     public void saveShop2Redis(Long id, Long expireSeconds) throws InterruptedException {
         Shop shop = getById(id);
         Thread.sleep(200);
-        RedisData redisData = new RedisData();
-        redisData.setData(shop);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSeconds));
-        stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(redisData));
+        cacheClient.setWithLogicalExpire(RedisConstants.CACHE_SHOP_KEY, id, shop, expireSeconds, TimeUnit.SECONDS);
     }
 }
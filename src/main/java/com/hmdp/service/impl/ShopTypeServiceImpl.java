@@ -1,46 +1,171 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.json.JSONUtil;
+import cn.hutool.core.util.StrUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.annotation.HmdpCacheEvict;
+import com.hmdp.annotation.HmdpCacheable;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
+import com.hmdp.event.CacheChangeEvent;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.HttpResponseCache;
 import com.hmdp.utils.RedisConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.aop.framework.AopContext;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * <p>
  *  服务实现类
  * </p>
+ * 店铺类型一年只改几次, 列表以不可变快照常驻内存, 响应体提前序列化好;
+ * redis 中只保存一个版本号, 修改后递增版本并广播, 各节点比对版本后重建快照
  *
  * @author cyw
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
+    // 广播丢失时的兜底检查间隔
+    private static final long VERSION_CHECK_MILLIS = 5000L;
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private ObjectMapper objectMapper;
+    @Resource
+    private HttpResponseCache httpResponseCache;
+
+    private volatile TypeListSnapshot snapshot;
+
     @Override
     public Result getTypeList() {
-        //
-        String typeListJson = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOP_TYPE_KEY);
-        if (typeListJson != null) {
-            //存在
-            List<ShopType> typeList = JSONUtil.toList(typeListJson, ShopType.class);
-            return Result.ok(typeList);
+        return Result.ok(getSnapshot().typeList);
+    }
+
+    @Override
+    public byte[] getTypeListResponse() {
+        return getSnapshot().body;
+    }
+
+    /**
+     * 按 sort 排序的店铺类型列表, 整个列表缓存在 cache:shop:type
+     * 多个节点同时重建快照时由这层缓存挡住数据库
+     */
+    @Override
+    @HmdpCacheable(prefix = RedisConstants.CACHE_SHOP_TYPE_KEY, key = "''", ttl = RedisConstants.CACHE_SHOP_TYPE_TTL)
+    public List<ShopType> queryTypeList() {
+        return query().orderByAsc("sort").list();
+    }
+
+    /**
+     * 修改店铺类型, 删除列表缓存; 删除完成后由 {@link #onCacheChange} 递增版本号
+     *
+     * @param shopType 店铺类型
+     * @return Result 操作结果
+     */
+    @Override
+    @Transactional
+    @HmdpCacheEvict(prefix = RedisConstants.CACHE_SHOP_TYPE_KEY, key = "''")
+    public Result updateType(ShopType shopType) {
+        if (shopType.getId() == null) {
+            return Result.fail("店铺类型不存在");
         }
-        List<ShopType> typeList = query().orderByAsc("sort").list();
-        if (typeList == null) {
-            //不存在
+        if (!updateById(shopType)) {
             return Result.fail("店铺类型不存在");
         }
-        stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_TYPE_KEY,JSONUtil.toJsonStr(typeList));
-        return Result.ok(typeList);
+        return Result.ok();
+    }
+
+    /**
+     * 比对 redis 中的版本号, 不一致时重建快照
+     * 由版本广播触发, 并定时执行一次兜底
+     */
+    @Override
+    @Scheduled(fixedDelay = VERSION_CHECK_MILLIS)
+    public void checkTypeListVersion() {
+        TypeListSnapshot current = snapshot;
+        if (current == null) {
+            // 还没有请求用到快照, 等第一次请求时再加载
+            return;
+        }
+        if (current.version != readVersion()) {
+            rebuildSnapshot();
+        }
+    }
+
+    /**
+     * 列表缓存的延迟双删完成后递增版本号并广播, 此时其他节点重建读到的一定是新数据
+     */
+    @EventListener
+    public void onCacheChange(CacheChangeEvent event) {
+        if (event.getEntityType() != ShopType.class) {
+            return;
+        }
+        Long version = stringRedisTemplate.opsForValue().increment(RedisConstants.CACHE_SHOP_TYPE_VERSION_KEY);
+        stringRedisTemplate.convertAndSend(RedisConstants.SHOP_TYPE_VERSION_CHANNEL, String.valueOf(version));
+        log.info("店铺类型版本更新为 {}", version);
+    }
+
+    private TypeListSnapshot getSnapshot() {
+        TypeListSnapshot current = snapshot;
+        return current != null ? current : rebuildSnapshot();
+    }
+
+    private synchronized TypeListSnapshot rebuildSnapshot() {
+        // 先读版本再读列表, 期间若有修改, 下次检查时版本不一致会再次重建
+        long version = readVersion();
+        TypeListSnapshot current = snapshot;
+        if (current != null && current.version == version) {
+            return current;
+        }
+        IShopTypeService proxy = (IShopTypeService) AopContext.currentProxy();
+        List<ShopType> typeList = proxy.queryTypeList();
+        TypeListSnapshot next = new TypeListSnapshot(version,
+                typeList == null ? Collections.emptyList() : typeList, objectMapper);
+        snapshot = next;
+        // 旧快照的 ETag 和响应体随之作废
+        httpResponseCache.invalidate(RedisConstants.CACHE_SHOP_TYPE_KEY);
+        log.debug("店铺类型快照已重建, 版本 {}, 共 {} 条", version, next.typeList.size());
+        return next;
+    }
+
+    private long readVersion() {
+        String version = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOP_TYPE_VERSION_KEY);
+        return StrUtil.isBlank(version) ? 0L : Long.parseLong(version);
+    }
+
+    /**
+     * 某个版本的店铺类型列表, 创建后不再修改
+     */
+    private static final class TypeListSnapshot {
+        final long version;
+        final List<ShopType> typeList;
+        // Result.ok(typeList) 序列化后的响应体
+        final byte[] body;
+
+        TypeListSnapshot(long version, List<ShopType> typeList, ObjectMapper objectMapper) {
+            this.version = version;
+            this.typeList = Collections.unmodifiableList(new ArrayList<>(typeList));
+            try {
+                this.body = objectMapper.writeValueAsBytes(Result.ok(this.typeList));
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("店铺类型列表序列化失败", e);
+            }
+        }
     }
 }
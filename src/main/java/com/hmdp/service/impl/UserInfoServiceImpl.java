@@ -1,15 +1,27 @@
 package com.hmdp.service.impl;
 
+import com.hmdp.annotation.HmdpCacheable;
 import com.hmdp.entity.UserInfo;
+import com.hmdp.event.FollowChangeEvent;
 import com.hmdp.mapper.UserInfoMapper;
 import com.hmdp.service.IUserInfoService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CounterType;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.WriteBehindCounter;
+import org.springframework.aop.framework.AopContext;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.Map;
+
 /**
  * <p>
  *  服务实现类
  * </p>
+ * 粉丝数、关注数不在关注时同步更新, 由关注事件累加到计数写回, 定时批量 UPDATE;
+ * 查询详情时在缓存的值上加上尚未写回的增量
  *
  * @author 虎哥
  * @since 2021-12-24
@@ -17,4 +29,54 @@ import org.springframework.stereotype.Service;
 @Service
 public class UserInfoServiceImpl extends ServiceImpl<UserInfoMapper, UserInfo> implements IUserInfoService {
 
+    @Resource
+    private WriteBehindCounter writeBehindCounter;
+
+    /**
+     * 用户详情, 粉丝数、关注数包含尚未写回的增量
+     *
+     * @param userId 用户id
+     * @return UserInfo 没有详情且没有计数时返回null
+     */
+    @Override
+    public UserInfo queryInfo(Long userId) {
+        UserInfo info = ((IUserInfoService) AopContext.currentProxy()).queryCachedInfo(userId);
+        Map<CounterType, Long> pending = writeBehindCounter.pending(userId, CounterType.USER_FANS, CounterType.USER_FOLLOWEE);
+        long fans = pending.get(CounterType.USER_FANS);
+        long followee = pending.get(CounterType.USER_FOLLOWEE);
+        if (info == null) {
+            if (fans == 0 && followee == 0) {
+                return null;
+            }
+            // 详情行在写回时补齐
+            info = new UserInfo().setUserId(userId).setFans(0).setFollowee(0);
+        }
+        info.setFans((int) Math.max(0, (info.getFans() == null ? 0 : info.getFans()) + fans));
+        info.setFollowee((int) Math.max(0, (info.getFollowee() == null ? 0 : info.getFollowee()) + followee));
+        return info;
+    }
+
+    /**
+     * 缓存中的用户详情, 计数写回后删除
+     */
+    @Override
+    @HmdpCacheable(prefix = RedisConstants.CACHE_USER_INFO_KEY, ttl = RedisConstants.CACHE_USER_INFO_TTL)
+    public UserInfo queryCachedInfo(Long userId) {
+        UserInfo info = getById(userId);
+        if (info != null) {
+            info.setCreateTime(null);
+            info.setUpdateTime(null);
+        }
+        return info;
+    }
+
+    /**
+     * 关注、取消关注后累加双方的计数, 同一用户在一个写回周期内的变更合并为一次 UPDATE
+     */
+    @EventListener
+    public void onFollowChange(FollowChangeEvent event) {
+        int delta = event.isFollow() ? 1 : -1;
+        writeBehindCounter.increment(CounterType.USER_FANS, event.getFollowUserId(), delta);
+        writeBehindCounter.increment(CounterType.USER_FOLLOWEE, event.getUserId(), delta);
+    }
 }
@@ -4,25 +4,42 @@ import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.bean.copier.CopyOptions;
 import cn.hutool.core.util.RandomUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.annotation.HmdpCacheEvict;
+import com.hmdp.annotation.HmdpCacheable;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.SignMonth;
 import com.hmdp.entity.User;
+import com.hmdp.mapper.SignMonthMapper;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RegexUtils;
+import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 import static com.hmdp.utils.SystemConstants.USER_NICK_NAME_PREFIX;
@@ -39,8 +56,16 @@ import static com.hmdp.utils.SystemConstants.USER_NICK_NAME_PREFIX;
 @Slf4j
 public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IUserService {
 
+    private static final DateTimeFormatter SIGN_MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+    // 连续签到最多向前追溯的月数
+    private static final int SIGN_STREAK_MAX_MONTHS = 12;
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private SignMonthMapper signMonthMapper;
 
     @Override
     public Result sendCode(String phone, HttpSession session) {
@@ -95,6 +120,136 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         return Result.ok(token);
     }
 
+    /**
+     * 查询用户的公开信息, 结果经 CacheClient 缓存
+     *
+     * @param id 用户id
+     * @return UserDTO 用户不存在时返回null
+     */
+    @Override
+    @HmdpCacheable(prefix = CACHE_USER_KEY, ttl = CACHE_USER_TTL)
+    public UserDTO queryUserById(Long id) {
+        User user = getById(id);
+        return user == null ? null : BeanUtil.copyProperties(user, UserDTO.class);
+    }
+
+    /**
+     * 批量查询用户的昵称与头像, 与 {@link #queryUserById} 共用 cache:user:{id}
+     * 一次 MGET, 未命中的一次 IN 查询后回写; 热点用户还会命中节点本地缓存
+     *
+     * @param ids 用户id, 可以重复
+     * @return 用户id -> UserDTO, 按 ids 的顺序, 不存在的用户不在结果中
+     */
+    @Override
+    public Map<Long, UserDTO> queryUserSummaries(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return cacheClient.queryBatch(CACHE_USER_KEY, new LinkedHashSet<>(ids), UserDTO.class,
+                missed -> query().select("id", "nick_name", "icon").in("id", missed).list().stream()
+                        .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+                        .collect(Collectors.toMap(UserDTO::getId, Function.identity())),
+                CACHE_USER_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 修改当前用户的昵称、头像, 提交后删除用户摘要缓存
+     *
+     * @param user 只使用 id、nickName、icon
+     * @return Result 操作结果
+     */
+    @Override
+    @Transactional
+    @HmdpCacheEvict(prefix = CACHE_USER_KEY, key = "#user.id")
+    public Result updateMe(UserDTO user) {
+        boolean updated = update()
+                .set(user.getNickName() != null, "nick_name", user.getNickName())
+                .set(user.getIcon() != null, "icon", user.getIcon())
+                .eq("id", user.getId())
+                .update();
+        if (!updated) {
+            return Result.fail("用户不存在");
+        }
+        return Result.ok();
+    }
+
+    /**
+     * 当天签到, SETBIT sign:{userId}:{yyyyMM} 第 dayOfMonth-1 位
+     *
+     * @return Result 今天已经签到过时返回失败
+     */
+    @Override
+    public Result sign() {
+        Long userId = UserHolder.getUser().getId();
+        LocalDate today = LocalDate.now();
+        String key = signKey(userId, YearMonth.from(today));
+        Boolean signed = stringRedisTemplate.opsForValue().setBit(key, today.getDayOfMonth() - 1, true);
+        stringRedisTemplate.expire(key, USER_SIGN_TTL, TimeUnit.DAYS);
+        if (Boolean.TRUE.equals(signed)) {
+            return Result.fail("今天已经签到过了");
+        }
+        return Result.ok();
+    }
+
+    /**
+     * 当前连续签到天数, 今天还没签到时从昨天开始算
+     * 本月用一次 BITFIELD GET u{dayOfMonth} 0 取出到今天为止的位, 最低位是今天, 取反后数末尾的0即为连续天数;
+     * 连续到1号时再看上个月, 位图已过期的月份从 tb_sign_month 读取
+     *
+     * @return Result 连续签到天数
+     */
+    @Override
+    public Result signCount() {
+        Long userId = UserHolder.getUser().getId();
+        LocalDate today = LocalDate.now();
+        int day = today.getDayOfMonth();
+        List<Long> result = stringRedisTemplate.opsForValue().bitField(signKey(userId, YearMonth.from(today)),
+                BitFieldSubCommands.create().get(BitFieldSubCommands.BitFieldType.unsigned(day)).valueAt(0));
+        long bits = result == null || result.isEmpty() || result.get(0) == null ? 0 : result.get(0);
+        if ((bits & 1) == 0) {
+            // 今天还没签到, 不中断连续记录
+            bits >>>= 1;
+            day--;
+        }
+        int count = Math.min(Long.numberOfTrailingZeros(~bits), day);
+        if (count < day) {
+            return Result.ok(count);
+        }
+        YearMonth month = YearMonth.from(today);
+        for (int i = 0; i < SIGN_STREAK_MAX_MONTHS; i++) {
+            month = month.minusMonths(1);
+            int length = month.lengthOfMonth();
+            // 翻转后最低位是当月最后一天
+            int fromEnd = Integer.reverse(signBits(userId, month)) >>> (Integer.SIZE - length);
+            int days = Math.min(Integer.numberOfTrailingZeros(~fromEnd), length);
+            count += days;
+            if (days < length) {
+                break;
+            }
+        }
+        return Result.ok(count);
+    }
+
+    /**
+     * 某个月的签到记录, 第n位(从0起)为1表示第n+1天已签到
+     * 先读 redis 位图, 没有签到记录时再查归档
+     */
+    private int signBits(Long userId, YearMonth month) {
+        List<Long> result = stringRedisTemplate.opsForValue().bitField(signKey(userId, month),
+                BitFieldSubCommands.create().get(BitFieldSubCommands.BitFieldType.unsigned(32)).valueAt(0));
+        long bits = result == null || result.isEmpty() || result.get(0) == null ? 0 : result.get(0);
+        if (bits != 0) {
+            // BITFIELD 的第0位是最高位, 翻转为第0位在最低位
+            return Integer.reverse((int) bits);
+        }
+        SignMonth archived = signMonthMapper.selectOne(userId, Integer.valueOf(month.format(SIGN_MONTH_FORMAT)));
+        return archived == null ? 0 : archived.getBits();
+    }
+
+    private static String signKey(Long userId, YearMonth month) {
+        return USER_SIGN_KEY + userId + ":" + month.format(SIGN_MONTH_FORMAT);
+    }
+
     private User createUserWithPhone(String phone) {
         User user = new User();
         user.setPhone(phone);
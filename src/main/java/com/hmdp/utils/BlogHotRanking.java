@@ -0,0 +1,174 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.ScrollResult;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 热门博文排行, 保存在 redis 的 blog:hot 中, 点赞时增量更新, 不再每次 ORDER BY liked
+ * 1. gravity 为0时分数就是点赞数
+ * 2. gravity 大于0时按发布时长衰减: 分数 = 点赞数 * SCALE / (发布小时数 + 2) ^ gravity,
+ *    点赞时按博文当前的衰减系数加分, 已有分数随时间的衰减由定时全量重建修正
+ * 3. 分数取整, 翻页与关注推送相同, 用 (上一页最小分数, 同分偏移量)
+ */
+@Component
+public class BlogHotRanking {
+
+    // 衰减时放大分数, 取整后仍能区分先后
+    private static final double SCALE = 1000;
+    private static final String BUILDING_SUFFIX = ":building";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final double gravity;
+
+    public BlogHotRanking(StringRedisTemplate stringRedisTemplate,
+                          @Value("${hmdp.blog.hot.gravity:0}") double gravity) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.gravity = gravity;
+    }
+
+    public boolean isDecaying() {
+        return gravity > 0;
+    }
+
+    /**
+     * 排行是否已构建, 未构建时调用方退回数据库
+     */
+    public boolean exists() {
+        return Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisConstants.BLOG_HOT_KEY));
+    }
+
+    /**
+     * 博文的排行分数
+     *
+     * @param liked 点赞数
+     * @param createTime 发布时间, 不衰减时可以为null
+     */
+    public long score(long liked, LocalDateTime createTime) {
+        if (!isDecaying()) {
+            return liked;
+        }
+        return Math.round(liked * weight(createTime));
+    }
+
+    /**
+     * 点赞或取消点赞, 博文不在排行中时不处理, 由下次重建加入
+     *
+     * @param createTime 发布时间, 不衰减时可以为null
+     */
+    public void onLike(Long blogId, int delta, LocalDateTime createTime) {
+        long increment = isDecaying() ? Math.round(delta * weight(createTime)) : delta;
+        if (increment == 0) {
+            return;
+        }
+        String member = blogId.toString();
+        if (stringRedisTemplate.opsForZSet().score(RedisConstants.BLOG_HOT_KEY, member) != null) {
+            stringRedisTemplate.opsForZSet().incrementScore(RedisConstants.BLOG_HOT_KEY, member, increment);
+        }
+    }
+
+    /**
+     * 新发布的博文以0分加入排行
+     */
+    public void add(Long blogId) {
+        if (exists()) {
+            stringRedisTemplate.opsForZSet().add(RedisConstants.BLOG_HOT_KEY, blogId.toString(), 0);
+        }
+    }
+
+    /**
+     * 按名次分页
+     *
+     * @return 博文id, 按分数降序
+     */
+    public List<Long> page(long start, long end) {
+        Set<String> members = stringRedisTemplate.opsForZSet().reverseRange(RedisConstants.BLOG_HOT_KEY, start, end);
+        if (members == null || members.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Long> ids = new ArrayList<>(members.size());
+        members.forEach(m -> ids.add(Long.valueOf(m)));
+        return ids;
+    }
+
+    /**
+     * 按分数滚动查询
+     *
+     * @param max 上一页的最小分数, 第一页传 Long.MAX_VALUE
+     * @param offset 上一页中与 max 同分的条数
+     * @param count 每页条数
+     * @return list 为博文id, minTime 为本页最小分数, offset 为本页中与之同分的条数
+     */
+    public ScrollResult scroll(long max, int offset, int count) {
+        Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                .reverseRangeByScoreWithScores(RedisConstants.BLOG_HOT_KEY, 0, max, offset, count);
+        List<Long> ids = new ArrayList<>(count);
+        long minScore = max;
+        int os = 0;
+        if (tuples != null) {
+            for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                ids.add(Long.valueOf(tuple.getValue()));
+                long score = tuple.getScore() == null ? 0 : tuple.getScore().longValue();
+                if (score == minScore) {
+                    os++;
+                } else {
+                    minScore = score;
+                    os = 1;
+                }
+            }
+        }
+        ScrollResult r = new ScrollResult();
+        r.setList(ids);
+        r.setMinTime(minScore);
+        // 本页全部与上一页最小分数相同时, 偏移量需要累加
+        r.setOffset(minScore == max ? os + offset : os);
+        return r;
+    }
+
+    /**
+     * 开始全量重建, 分数写入临时key, 完成后由 {@link #finishRebuild()} 替换
+     */
+    public void startRebuild() {
+        stringRedisTemplate.delete(RedisConstants.BLOG_HOT_KEY + BUILDING_SUFFIX);
+    }
+
+    public void addRebuild(Map<Long, Long> scores) {
+        if (scores.isEmpty()) {
+            return;
+        }
+        Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>(scores.size() * 2);
+        scores.forEach((id, score) -> tuples.add(new DefaultTypedTuple<>(id.toString(), score.doubleValue())));
+        stringRedisTemplate.opsForZSet().add(RedisConstants.BLOG_HOT_KEY + BUILDING_SUFFIX, tuples);
+    }
+
+    /**
+     * 用重建结果替换排行, 重建期间发生的点赞在下次重建时补上
+     */
+    public void finishRebuild() {
+        String building = RedisConstants.BLOG_HOT_KEY + BUILDING_SUFFIX;
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(building))) {
+            stringRedisTemplate.rename(building, RedisConstants.BLOG_HOT_KEY);
+        }
+    }
+
+    /**
+     * 衰减系数, 发布时间未知时按刚发布计算
+     */
+    private double weight(LocalDateTime createTime) {
+        double hours = createTime == null ? 0
+                : Math.max(0, Duration.between(createTime, LocalDateTime.now()).toMinutes() / 60.0);
+        return SCALE / Math.pow(hours + 2, gravity);
+    }
+}
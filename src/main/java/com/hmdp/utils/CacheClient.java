@@ -1,61 +1,185 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSON;
 import cn.hutool.json.JSONUtil;
-import com.hmdp.entity.Shop;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Component;
 
-import java.sql.Time;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
+@Slf4j
 @Component
 public class CacheClient {
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
-
+    // 互斥锁方式下等待重建的重试间隔与次数
+    private static final long MUTEX_RETRY_MILLIS = 50L;
+    private static final int MUTEX_MAX_RETRIES = 20;
 
     private StringRedisTemplate stringRedisTemplate;
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    private CacheMetrics cacheMetrics;
+    private HotKeyDetector hotKeyDetector;
+    private LocalCache localCache;
+    private CacheRebuildScheduler rebuildScheduler;
+    private CacheCodec cacheCodec;
+    // 各前缀的TTL抖动比例
+    private final Map<String, Double> ttlJitters = new ConcurrentHashMap<>();
+    // 各前缀重建耗时的滑动平均值(毫秒),作为 XFetch 的 delta
+    private final Map<String, Long> rebuildCosts = new ConcurrentHashMap<>();
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate, CacheMetrics cacheMetrics,
+                       HotKeyDetector hotKeyDetector, LocalCache localCache,
+                       CacheRebuildScheduler rebuildScheduler, CacheCodec cacheCodec) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheMetrics = cacheMetrics;
+        this.hotKeyDetector = hotKeyDetector;
+        this.localCache = localCache;
+        this.rebuildScheduler = rebuildScheduler;
+        this.cacheCodec = cacheCodec;
+        setTtlJitter(RedisConstants.CACHE_SHOP_KEY, RedisConstants.CACHE_SHOP_TTL_JITTER);
     }
 
-    public void set(String key, Object value , Long time , TimeUnit unit) {
+    /**
+     * 设置某个前缀的TTL抖动比例
+     *
+     * @param keyPrefix key前缀
+     * @param ratio 抖动比例, 实际TTL在 [ttl, ttl * (1 + ratio)] 之间
+     */
+    public void setTtlJitter(String keyPrefix, double ratio) {
+        ttlJitters.put(keyPrefix, ratio);
+    }
 
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value),time,unit);
+    /**
+     * 写入缓存, key 为 keyPrefix + id, 指标和TTL抖动按 keyPrefix 归类
+     */
+    public <ID> void set(String keyPrefix, ID id, Object value, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        long ttl = jitter(keyPrefix, unit.toMillis(time));
+        byte[] raw = cacheCodec.encode(keyPrefix, JSONUtil.toJsonStr(value));
+        stringRedisTemplate.execute((RedisCallback<Object>) connection ->
+                connection.pSetEx(key.getBytes(StandardCharsets.UTF_8), ttl, raw));
+        localCache.invalidate(key);
     }
-    public void setWithLogicalExpire(String key, Object value, Long time,TimeUnit unit) {
+    public <ID> void setWithLogicalExpire(String keyPrefix, ID id, Object value, Long time, TimeUnit unit) {
         // 设置 逻辑过期0
+        String key = keyPrefix + id;
+        long ttl = jitter(keyPrefix, unit.toMillis(time));
+        byte[] raw = cacheCodec.encode(keyPrefix, toRedisData(value, ttl));
+        stringRedisTemplate.execute((RedisCallback<Object>) connection ->
+                connection.set(key.getBytes(StandardCharsets.UTF_8), raw));
+        localCache.invalidate(key);
+    }
+
+    /**
+     * 批量写入同一前缀的缓存, 一次 pipeline 提交
+     *
+     * @param values id -> 缓存对象
+     * @param logicalExpire true 使用逻辑过期, false 使用 redis TTL
+     */
+    public <ID> void setBatch(String keyPrefix, Map<ID, ?> values, Long time, TimeUnit unit, boolean logicalExpire) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((id, value) -> {
+                String key = keyPrefix + id;
+                long ttl = jitter(keyPrefix, unit.toMillis(time));
+                byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+                if (logicalExpire) {
+                    connection.set(rawKey, cacheCodec.encode(keyPrefix, toRedisData(value, ttl)));
+                } else {
+                    connection.pSetEx(rawKey, ttl, cacheCodec.encode(keyPrefix, JSONUtil.toJsonStr(value)));
+                }
+                localCache.invalidate(key);
+            });
+            return null;
+        });
+    }
+
+    private static String toRedisData(Object value, long ttlMillis) {
         RedisData redisData = new RedisData();
         redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds( time)));
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        redisData.setExpireTime(LocalDateTime.now().plus(Duration.ofMillis(ttlMillis)));
+        return JSONUtil.toJsonStr(redisData);
+    }
+
+    /**
+     * 删除缓存, 并通知所有节点摘除本地副本
+     *
+     * @param key 缓存key
+     */
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        localCache.invalidate(key);
+        stringRedisTemplate.convertAndSend(RedisConstants.CACHE_INVALIDATE_CHANNEL, key);
     }
     /**
      * 使用缓存空值方式解决缓存穿透问题
+     * 临近过期时按 XFetch 概率提前在后台刷新
      *
      * @param id 店铺ID
      * @return Shop 店铺对象，如果不存在则返回null
      */
     public <T,ID> T queryWithPassThrough(String keyPrefix, ID id, Class<T> type, Function<ID,T> dbFallback,Long time , TimeUnit unit) {
+        return queryWithPassThrough(keyPrefix, id, (Type) type, dbFallback, time, unit);
+    }
+
+    /**
+     * 同上, type 可以是泛型类型, 例如 List&lt;ShopType&gt;
+     */
+    public <T,ID> T queryWithPassThrough(String keyPrefix, ID id, Type type, Function<ID,T> dbFallback,Long time , TimeUnit unit) {
         String key = keyPrefix + id;
-        // 1.在redis中查询缓存
-        String Json = stringRedisTemplate.opsForValue().get(key);
+        // 0.热点key先查本地缓存
+        String local = getLocal(key);
+        if (local != null) {
+            cacheMetrics.recordLocalHit(keyPrefix);
+            return StrUtil.isNotBlank(local) ? JSONUtil.toBean(local, type, false) : null;
+        }
+        // 1.在redis中查询缓存,同时取剩余TTL
+        List<Object> res = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+            connection.get(rawKey);
+            connection.pTtl(rawKey);
+            return null;
+        }, RedisSerializer.byteArray());
+        String Json = cacheCodec.decode((byte[]) res.get(0));
+        Long remaining = (Long) res.get(1);
+        pinIfHot(key, Json);
         // 2.缓存命中.返回
         if (StrUtil.isNotBlank(Json)) {
-            return  JSONUtil.toBean(Json,type);
+            cacheMetrics.recordHit(keyPrefix, Json.length());
+            if (remaining != null && shouldRefreshEarly(keyPrefix, remaining)) {
+                refreshAsync(keyPrefix, key, remaining, () -> {
+                    T fresh = dbFallback.apply(id);
+                    if (fresh == null) {
+                        stringRedisTemplate.opsForValue().set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+                        return;
+                    }
+                    set(keyPrefix, id, fresh, time, unit);
+                });
+            }
+            return  JSONUtil.toBean(Json, type, false);
         }
         if (Json != null) {
+            cacheMetrics.recordNullHit(keyPrefix);
             return null;
         }
         // 3.缓存未命中
+        cacheMetrics.recordMiss(keyPrefix);
         // 4.查询数据库
-        T t = dbFallback.apply(id);
+        T t = load(keyPrefix, id, dbFallback);
         if (t == null) {
             // 缓存空值
             stringRedisTemplate.opsForValue().set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
@@ -63,7 +187,7 @@ public class CacheClient {
             return null;
         }
         // 6.数据库存在,写入缓存,并设置超时时间
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(t), time, unit);
+        set(keyPrefix, id, t, time, unit);
         // 7.返回
         return t;
 
@@ -71,70 +195,277 @@ public class CacheClient {
 
     /**
      * 使用逻辑过期方式解决缓存击穿问题
+     * 未过期但临近过期时同样按 XFetch 概率提前重建
      *
      * @param id 店铺ID
      * @return Shop 店铺对象，如果不存在则返回null
      */
     public <R,ID> R queryWithLogicalExpire(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        return queryWithLogicalExpire(keyPrefix, id, (Type) type, dbFallback, time, unit);
+    }
+
+    /**
+     * 同上, type 可以是泛型类型
+     */
+    public <R,ID> R queryWithLogicalExpire(String keyPrefix, ID id, Type type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
-        // 1.在redis 中查询缓存
-        String Json = stringRedisTemplate.opsForValue().get(key);
+        // 1.热点key先查本地缓存,再查redis
+        String Json = getLocal(key);
+        if (Json != null) {
+            cacheMetrics.recordLocalHit(keyPrefix);
+        } else {
+            Json = getValue(key);
+            pinIfHot(key, Json);
+        }
         // 2.缓存未命中.返回
         if (StrUtil.isBlank(Json)) {
+            cacheMetrics.recordMiss(keyPrefix);
             return null;
         }
+        cacheMetrics.recordHit(keyPrefix, Json.length());
         // 3.缓存命中
         // json -> 对象
         RedisData redisData = JSONUtil.toBean(Json, RedisData.class);
-        JSONObject jsonData = (JSONObject) redisData.getData();
+        JSON jsonData = (JSON) redisData.getData();
         R r = jsonData.toBean(type);
         LocalDateTime expireTime = redisData.getExpireTime();
+        long remaining = Duration.between(LocalDateTime.now(), expireTime).toMillis();
         // 判断是否过期
-        if (expireTime.isAfter(LocalDateTime.now())) {
+        if (remaining > 0 && !shouldRefreshEarly(keyPrefix, remaining)) {
             // 缓存未过期.直接返回
             return r;
         }
-        // 缓存已过期.获取锁
-        String lock = RedisConstants.LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lock);
-
-        if (isLock) {
-            // 获取成功,创建新的独立线程,重建缓存
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    // 创建重建缓存
-                    // 查询数据库
-                    R r1 = dbFallback.apply(id);
-                    this.setWithLogicalExpire(key,r1 , time, unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    // 释放锁
-                    unLock(lock);
-                }
-            });
-        }
-        // 获取锁失败.返回数据
-        // 7.返回
+        // 缓存已过期或被选中提前刷新.获取锁,重建缓存
+        refreshAsync(keyPrefix, key, remaining, () -> setWithLogicalExpire(keyPrefix, id, dbFallback.apply(id), time, unit));
+        // 7.返回旧数据
         return r;
 
     }
+
+    /**
+     * 使用互斥锁方式解决缓存击穿问题
+     * 未命中时只有抢到 lock:{缓存key} 的请求查询数据库, 其余请求短暂休眠后重试
+     *
+     * @param keyPrefix key前缀
+     * @param id 主键
+     * @return 缓存对象，如果不存在则返回null
+     */
+    public <T,ID> T queryWithMutex(String keyPrefix, ID id, Class<T> type, Function<ID,T> dbFallback, Long time, TimeUnit unit) {
+        return queryWithMutex(keyPrefix, id, (Type) type, dbFallback, time, unit);
+    }
+
+    /**
+     * 同上, type 可以是泛型类型
+     */
+    public <T,ID> T queryWithMutex(String keyPrefix, ID id, Type type, Function<ID,T> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        SimpleRedisLock lock = new SimpleRedisLock(key, stringRedisTemplate);
+        // 只有拿到锁才需要释放, 缓存命中时不多访问一次锁key
+        boolean locked = false;
+        try {
+            for (int i = 0; ; i++) {
+                // 1.热点key先查本地缓存,再查redis
+                String Json = getLocal(key);
+                if (Json != null) {
+                    cacheMetrics.recordLocalHit(keyPrefix);
+                } else {
+                    Json = getValue(key);
+                    pinIfHot(key, Json);
+                }
+                // 2.缓存命中.返回
+                if (StrUtil.isNotBlank(Json)) {
+                    cacheMetrics.recordHit(keyPrefix, Json.length());
+                    return JSONUtil.toBean(Json, type, false);
+                }
+                if (Json != null) {
+                    cacheMetrics.recordNullHit(keyPrefix);
+                    return null;
+                }
+                // 3.获取互斥锁,失败则休眠重试,超过次数后直接查库
+                if (i < MUTEX_MAX_RETRIES) {
+                    if (!lock.tryLock(RedisConstants.LOCK_CACHE_TTL)) {
+                        Thread.sleep(MUTEX_RETRY_MILLIS);
+                        continue;
+                    }
+                    locked = true;
+                }
+                cacheMetrics.recordMiss(keyPrefix);
+                // 4.查询数据库
+                T t = load(keyPrefix, id, dbFallback);
+                if (t == null) {
+                    stringRedisTemplate.opsForValue().set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+                    return null;
+                }
+                set(keyPrefix, id, t, time, unit);
+                return t;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            // 释放互斥锁
+            if (locked) {
+                lock.unlock();
+            }
+        }
+    }
+
     /**
-     * 尝试获取分布式锁
+     * 批量查询, 一次 MGET 取出全部缓存, 未命中的id交给 dbFallback 一次查出后批量回写
+     * 数据库中不存在的id缓存空值, 与 queryWithPassThrough 一致
      *
-     * @param key 锁的键名
-     * @return boolean 是否获取成功
+     * @param keyPrefix key前缀
+     * @param ids 主键
+     * @param dbFallback 按未命中的id批量查询, 返回 id -> 对象
+     * @return id -> 对象, 按 ids 的顺序, 不存在的id不在结果中
+     */
+    public <T,ID> Map<ID,T> queryBatch(String keyPrefix, Collection<ID> ids, Class<T> type,
+                                       Function<Collection<ID>, Map<ID,T>> dbFallback, Long time, TimeUnit unit) {
+        Map<ID, T> found = new HashMap<>(ids.size() * 2);
+        List<ID> remote = new ArrayList<>(ids.size());
+        // 1.热点key先查本地缓存
+        for (ID id : ids) {
+            String local = getLocal(keyPrefix + id);
+            if (local == null) {
+                remote.add(id);
+                continue;
+            }
+            cacheMetrics.recordLocalHit(keyPrefix);
+            if (StrUtil.isNotBlank(local)) {
+                found.put(id, JSONUtil.toBean(local, type, false));
+            }
+        }
+        // 2.其余的一次 MGET
+        List<ID> missed = new ArrayList<>();
+        if (!remote.isEmpty()) {
+            byte[][] rawKeys = new byte[remote.size()][];
+            for (int i = 0; i < remote.size(); i++) {
+                rawKeys[i] = (keyPrefix + remote.get(i)).getBytes(StandardCharsets.UTF_8);
+            }
+            List<byte[]> values = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection ->
+                    connection.mGet(rawKeys));
+            for (int i = 0; i < remote.size(); i++) {
+                ID id = remote.get(i);
+                String json = values == null ? null : cacheCodec.decode(values.get(i));
+                pinIfHot(keyPrefix + id, json);
+                if (StrUtil.isNotBlank(json)) {
+                    cacheMetrics.recordHit(keyPrefix, json.length());
+                    found.put(id, JSONUtil.toBean(json, type, false));
+                } else if (json != null) {
+                    cacheMetrics.recordNullHit(keyPrefix);
+                } else {
+                    cacheMetrics.recordMiss(keyPrefix);
+                    missed.add(id);
+                }
+            }
+        }
+        // 3.未命中的一次查库, 存在的批量回写, 不存在的缓存空值
+        if (!missed.isEmpty()) {
+            long begin = System.nanoTime();
+            Map<ID, T> loaded = dbFallback.apply(missed);
+            recordLoadCost(keyPrefix, System.nanoTime() - begin);
+            if (!loaded.isEmpty()) {
+                setBatch(keyPrefix, loaded, time, unit, false);
+            }
+            found.putAll(loaded);
+            if (loaded.size() < missed.size()) {
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (ID id : missed) {
+                        if (!loaded.containsKey(id)) {
+                            connection.setEx((keyPrefix + id).getBytes(StandardCharsets.UTF_8),
+                                    TimeUnit.MINUTES.toSeconds(RedisConstants.CACHE_NULL_TTL), new byte[0]);
+                        }
+                    }
+                    return null;
+                });
+            }
+        }
+        Map<ID, T> result = new LinkedHashMap<>(found.size() * 2);
+        for (ID id : ids) {
+            T value = found.get(id);
+            if (value != null) {
+                result.put(id, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 读取并解码缓存值
+     */
+    private String getValue(String key) {
+        byte[] raw = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.get(key.getBytes(StandardCharsets.UTF_8)));
+        return cacheCodec.decode(raw);
+    }
+
+    /**
+     * 记录访问, 热点key返回本地缓存中的副本
+     */
+    private String getLocal(String key) {
+        return hotKeyDetector.record(key) ? localCache.get(key) : null;
+    }
+
+    /**
+     * 热点key的redis结果放入本地缓存
      */
-    private boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10L, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue( flag);
+    private void pinIfHot(String key, String json) {
+        if (json != null && hotKeyDetector.isHot(key)) {
+            localCache.put(key, json, HotKeyDetector.LOCAL_TTL_SECONDS, TimeUnit.SECONDS);
+        }
     }
+
     /**
-     * 释放分布式锁
+     * XFetch: 剩余时间越短、重建越慢, 越可能提前刷新
+     * 满足 -delta * beta * ln(rand) >= remaining 时刷新
      *
-     * @param key 锁的键名
+     * @param keyPrefix key前缀
+     * @param remainingMillis 距离过期的剩余时间, 小于等于0表示已过期或没有过期时间
+     * @return boolean 是否提前刷新
      */
-    private void unLock(String key) {
-        stringRedisTemplate.delete(key);
+    private boolean shouldRefreshEarly(String keyPrefix, long remainingMillis) {
+        if (remainingMillis <= 0) {
+            return false;
+        }
+        long delta = Math.max(rebuildCosts.getOrDefault(keyPrefix, 0L), RedisConstants.CACHE_REFRESH_DELTA_FLOOR);
+        double gap = -delta * RedisConstants.CACHE_REFRESH_BETA * Math.log(1.0 - ThreadLocalRandom.current().nextDouble());
+        return gap >= remainingMillis;
+    }
+
+    /**
+     * 交给重建调度器在后台重建缓存, 其余请求直接返回旧数据
+     */
+    private void refreshAsync(String keyPrefix, String key, long remainingMillis, Runnable rebuild) {
+        boolean accepted = rebuildScheduler.submit(keyPrefix, key, () -> {
+            long begin = System.nanoTime();
+            rebuild.run();
+            recordLoadCost(keyPrefix, System.nanoTime() - begin);
+        });
+        if (accepted && remainingMillis > 0) {
+            cacheMetrics.recordEarlyRefresh(keyPrefix, remainingMillis);
+            log.debug("提前刷新缓存 {}, 剩余 {} ms", key, remainingMillis);
+        }
+    }
+
+    private <T, ID> T load(String keyPrefix, ID id, Function<ID, T> dbFallback) {
+        long begin = System.nanoTime();
+        T t = dbFallback.apply(id);
+        recordLoadCost(keyPrefix, System.nanoTime() - begin);
+        return t;
+    }
+
+    private void recordLoadCost(String keyPrefix, long nanos) {
+        cacheMetrics.recordLoad(keyPrefix, nanos);
+        rebuildCosts.merge(keyPrefix, TimeUnit.NANOSECONDS.toMillis(nanos), (old, cur) -> (old * 7 + cur) / 8);
+    }
+
+    /**
+     * 在原TTL上追加 [0, ratio * ttl] 的随机时长
+     */
+    private long jitter(String keyPrefix, long ttlMillis) {
+        double ratio = ttlJitters.getOrDefault(keyPrefix, RedisConstants.CACHE_TTL_JITTER);
+        long extra = (long) (ttlMillis * ratio * ThreadLocalRandom.current().nextDouble());
+        cacheMetrics.recordWrite(keyPrefix, ttlMillis + extra, extra);
+        return ttlMillis + extra;
     }
 }
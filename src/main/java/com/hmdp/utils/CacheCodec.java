@@ -0,0 +1,104 @@
+package com.hmdp.utils;
+
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 缓存值编解码
+ * 超过阈值的JSON用 Deflate 压缩, 并在开头加一个标记字节;
+ * JSON 文本不会以该字节开头, 读取时据此判断格式, 未压缩的旧值照常读取
+ */
+@Component
+public class CacheCodec {
+
+    // 压缩格式标记
+    private static final byte DEFLATE_MARKER = 0x01;
+
+    private final CacheMetrics cacheMetrics;
+
+    public CacheCodec(CacheMetrics cacheMetrics) {
+        this.cacheMetrics = cacheMetrics;
+    }
+
+    /**
+     * 编码, 达到阈值且压缩后更小时才压缩
+     *
+     * @param keyPrefix key前缀, 用于统计压缩率
+     * @param json 缓存的JSON
+     * @return 写入redis的字节
+     */
+    public byte[] encode(String keyPrefix, String json) {
+        byte[] raw = json.getBytes(StandardCharsets.UTF_8);
+        if (raw.length < RedisConstants.CACHE_COMPRESS_THRESHOLD) {
+            return raw;
+        }
+        byte[] compressed = deflate(raw);
+        if (compressed.length >= raw.length) {
+            cacheMetrics.recordCompression(keyPrefix, raw.length, raw.length);
+            return raw;
+        }
+        cacheMetrics.recordCompression(keyPrefix, raw.length, compressed.length);
+        return compressed;
+    }
+
+    /**
+     * 解码
+     *
+     * @param value 从redis读取的字节
+     * @return JSON, value为null时返回null
+     */
+    public String decode(byte[] value) {
+        if (value == null) {
+            return null;
+        }
+        if (value.length > 0 && value[0] == DEFLATE_MARKER) {
+            return new String(inflate(value), StandardCharsets.UTF_8);
+        }
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] buf = new byte[raw.length + 1];
+            buf[0] = DEFLATE_MARKER;
+            int len = 1;
+            while (!deflater.finished() && len < buf.length) {
+                len += deflater.deflate(buf, len, buf.length - len);
+            }
+            // 压缩后不比原文小, 由调用方放弃压缩
+            return deflater.finished() ? Arrays.copyOf(buf, len) : raw;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static byte[] inflate(byte[] value) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(value, 1, value.length - 1);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(value.length * 4);
+            byte[] buf = new byte[4096];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buf);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("缓存压缩数据不完整");
+                }
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("缓存压缩数据格式错误", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
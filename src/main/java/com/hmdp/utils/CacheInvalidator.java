@@ -0,0 +1,71 @@
+package com.hmdp.utils;
+
+import com.hmdp.event.CacheChangeEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 写操作后的缓存失效
+ * 1. 在事务提交后才删除缓存, 避免并发读在提交前把旧数据写回缓存
+ * 2. 延迟再删除一次, 清掉提交前后那段时间里被并发读写回的旧值
+ * 3. 第二次删除后发布 {@link CacheChangeEvent}
+ */
+@Slf4j
+@Component
+public class CacheInvalidator {
+
+    private final ScheduledExecutorService delayExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    private final CacheClient cacheClient;
+    private final ApplicationEventPublisher publisher;
+
+    public CacheInvalidator(CacheClient cacheClient, ApplicationEventPublisher publisher) {
+        this.cacheClient = cacheClient;
+        this.publisher = publisher;
+    }
+
+    /**
+     * 删除缓存, 有事务时推迟到提交之后
+     *
+     * @param key 缓存key
+     * @param entityType 变更的实体类型
+     * @param id 变更的实体id
+     */
+    public void invalidate(String key, Class<?> entityType, Object id) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            doubleDelete(key, entityType, id);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                doubleDelete(key, entityType, id);
+            }
+        });
+    }
+
+    private void doubleDelete(String key, Class<?> entityType, Object id) {
+        cacheClient.delete(key);
+        delayExecutor.schedule(() -> {
+            try {
+                cacheClient.delete(key);
+                publisher.publishEvent(new CacheChangeEvent(key, entityType, id));
+            } catch (Exception e) {
+                log.error("延迟删除缓存失败 {}", key, e);
+            }
+        }, RedisConstants.CACHE_DELAY_DELETE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        delayExecutor.shutdown();
+    }
+}
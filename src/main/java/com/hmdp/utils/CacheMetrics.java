@@ -0,0 +1,189 @@
+package com.hmdp.utils;
+
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按key前缀统计的缓存指标
+ * 全部基于 LongAdder 累加, 热路径上只有一次 map 查找和一次无锁自增
+ */
+@Component
+public class CacheMetrics {
+
+    private final Map<String, PrefixStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * 记录一次命中
+     *
+     * @param keyPrefix key前缀
+     * @param payloadLength 缓存值的长度
+     */
+    public void recordHit(String keyPrefix, int payloadLength) {
+        PrefixStats s = of(keyPrefix);
+        s.hits.increment();
+        s.payloadLength.add(payloadLength);
+    }
+
+    /**
+     * 记录一次本地缓存命中
+     */
+    public void recordLocalHit(String keyPrefix) {
+        of(keyPrefix).localHits.increment();
+    }
+
+    /**
+     * 记录一次空值命中(缓存穿透保护生效)
+     */
+    public void recordNullHit(String keyPrefix) {
+        of(keyPrefix).nullHits.increment();
+    }
+
+    /**
+     * 记录一次未命中
+     */
+    public void recordMiss(String keyPrefix) {
+        of(keyPrefix).misses.increment();
+    }
+
+    /**
+     * 记录一次回源数据库
+     *
+     * @param keyPrefix key前缀
+     * @param nanos 回源耗时
+     */
+    public void recordLoad(String keyPrefix, long nanos) {
+        PrefixStats s = of(keyPrefix);
+        s.loads.increment();
+        s.loadNanos.add(nanos);
+        s.maxLoadNanos.accumulate(nanos);
+    }
+
+    /**
+     * 记录一次后台重建
+     */
+    public void recordRebuild(String keyPrefix) {
+        of(keyPrefix).rebuilds.increment();
+    }
+
+    /**
+     * 记录一次超过压缩阈值的写入
+     *
+     * @param keyPrefix key前缀
+     * @param rawLength 原始字节数
+     * @param storedLength 实际写入的字节数
+     */
+    public void recordCompression(String keyPrefix, int rawLength, int storedLength) {
+        PrefixStats s = of(keyPrefix);
+        s.compressed.increment();
+        s.rawBytes.add(rawLength);
+        s.storedBytes.add(storedLength);
+    }
+
+    /**
+     * 记录一次带TTL的写入及其附加的随机抖动
+     *
+     * @param keyPrefix key前缀
+     * @param ttlMillis 写入的最终TTL
+     * @param jitterMillis 其中的随机抖动部分
+     */
+    public void recordWrite(String keyPrefix, long ttlMillis, long jitterMillis) {
+        PrefixStats s = of(keyPrefix);
+        s.writes.increment();
+        s.ttlMillis.add(ttlMillis);
+        s.jitterMillis.add(jitterMillis);
+    }
+
+    /**
+     * 记录一次提前刷新
+     *
+     * @param keyPrefix key前缀
+     * @param remainingMillis 触发刷新时距离过期的剩余时间
+     */
+    public void recordEarlyRefresh(String keyPrefix, long remainingMillis) {
+        PrefixStats s = of(keyPrefix);
+        s.earlyRefreshes.increment();
+        s.earlyRefreshLeadMillis.add(remainingMillis);
+    }
+
+    /**
+     * 导出所有前缀的指标快照
+     *
+     * @return 前缀 -> 指标
+     */
+    public Map<String, Map<String, Object>> snapshot() {
+        Map<String, Map<String, Object>> result = new TreeMap<>();
+        stats.forEach((prefix, s) -> result.put(prefix, s.toMap()));
+        return result;
+    }
+
+    private PrefixStats of(String keyPrefix) {
+        return stats.computeIfAbsent(keyPrefix, k -> new PrefixStats());
+    }
+
+    private static long avg(long sum, long count) {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    private static double ratio(long part, long total) {
+        return total == 0 ? 0 : (double) part / total;
+    }
+
+    private static class PrefixStats {
+        final LongAdder hits = new LongAdder();
+        final LongAdder localHits = new LongAdder();
+        final LongAdder nullHits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder payloadLength = new LongAdder();
+        final LongAdder loads = new LongAdder();
+        final LongAdder loadNanos = new LongAdder();
+        final LongAccumulator maxLoadNanos = new LongAccumulator(Math::max, 0L);
+        final LongAdder rebuilds = new LongAdder();
+        final LongAdder compressed = new LongAdder();
+        final LongAdder rawBytes = new LongAdder();
+        final LongAdder storedBytes = new LongAdder();
+        final LongAdder writes = new LongAdder();
+        final LongAdder ttlMillis = new LongAdder();
+        final LongAdder jitterMillis = new LongAdder();
+        final LongAdder earlyRefreshes = new LongAdder();
+        final LongAdder earlyRefreshLeadMillis = new LongAdder();
+
+        Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            long h = hits.sum();
+            long lh = localHits.sum();
+            long nh = nullHits.sum();
+            long miss = misses.sum();
+            long total = h + lh + nh + miss;
+            long l = loads.sum();
+            m.put("hits", h);
+            m.put("localHits", lh);
+            m.put("nullHits", nh);
+            m.put("misses", miss);
+            m.put("hitRatio", ratio(h + lh, total));
+            m.put("nullHitRatio", ratio(nh, total));
+            m.put("avgPayloadLength", avg(payloadLength.sum(), h));
+            m.put("loads", l);
+            m.put("avgLoadMicros", avg(loadNanos.sum(), l) / 1000);
+            m.put("maxLoadMicros", maxLoadNanos.get() / 1000);
+            m.put("rebuilds", rebuilds.sum());
+            long w = writes.sum();
+            long r = earlyRefreshes.sum();
+            m.put("writes", w);
+            m.put("avgTtlMillis", avg(ttlMillis.sum(), w));
+            m.put("avgJitterMillis", avg(jitterMillis.sum(), w));
+            m.put("earlyRefreshes", r);
+            m.put("avgEarlyRefreshLeadMillis", avg(earlyRefreshLeadMillis.sum(), r));
+            long raw = rawBytes.sum();
+            m.put("compressed", compressed.sum());
+            m.put("compressedSavedBytes", raw - storedBytes.sum());
+            m.put("compressionRatio", ratio(storedBytes.sum(), raw));
+            return m;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 逻辑过期/提前刷新共用的缓存重建调度器
+ * 1. 同一个缓存key在本节点只会有一个重建任务, 集群内由 lock:{缓存key} 互斥
+ * 2. 队列有上限, 由信号量在提交时原子地占位, 满了直接丢弃, 调用方继续返回旧数据
+ * 3. 越热的key越先重建
+ * 4. 任务开始执行时才抢锁, 排队再久锁也覆盖整个重建过程
+ */
+@Slf4j
+@Component
+public class CacheRebuildScheduler {
+
+    private static final int THREADS = 10;
+    private static final int QUEUE_CAPACITY = 1000;
+
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS,
+            0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>());
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    // 排队中的任务数, 任务开始执行时归还
+    private final Semaphore slots = new Semaphore(QUEUE_CAPACITY);
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder lockMissed = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final LongAccumulator maxLatencyNanos = new LongAccumulator(Math::max, 0L);
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final HotKeyDetector hotKeyDetector;
+    private final CacheMetrics cacheMetrics;
+
+    public CacheRebuildScheduler(StringRedisTemplate stringRedisTemplate, HotKeyDetector hotKeyDetector,
+                                 CacheMetrics cacheMetrics) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.hotKeyDetector = hotKeyDetector;
+        this.cacheMetrics = cacheMetrics;
+    }
+
+    /**
+     * 提交一个重建任务
+     *
+     * @param keyPrefix key前缀, 用于指标
+     * @param key 缓存key
+     * @param rebuild 重建逻辑
+     * @return boolean 是否进入队列, 重复或队列已满时返回false; 执行时未抢到锁会跳过重建
+     */
+    public boolean submit(String keyPrefix, String key, Runnable rebuild) {
+        if (!pending.add(key)) {
+            deduplicated.increment();
+            return false;
+        }
+        if (!slots.tryAcquire()) {
+            pending.remove(key);
+            shed.increment();
+            log.warn("缓存重建队列已满, 丢弃 {}", key);
+            return false;
+        }
+        accepted.increment();
+        executor.execute(new RebuildTask(hotKeyDetector.estimate(key), sequence.incrementAndGet(), () -> {
+            slots.release();
+            SimpleRedisLock lock = new SimpleRedisLock(key, stringRedisTemplate);
+            if (!lock.tryLock(RedisConstants.LOCK_CACHE_TTL)) {
+                // 其他节点正在重建
+                pending.remove(key);
+                lockMissed.increment();
+                return;
+            }
+            cacheMetrics.recordRebuild(keyPrefix);
+            long begin = System.nanoTime();
+            try {
+                rebuild.run();
+                completed.increment();
+            } catch (Exception e) {
+                failed.increment();
+                log.error("重建缓存失败 {}", key, e);
+            } finally {
+                long cost = System.nanoTime() - begin;
+                latencyNanos.add(cost);
+                maxLatencyNanos.accumulate(cost);
+                lock.unlock();
+                pending.remove(key);
+            }
+        }));
+        return true;
+    }
+
+    /**
+     * 调度器状态
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        long done = completed.sum() + failed.sum();
+        m.put("queueDepth", executor.getQueue().size());
+        m.put("queueCapacity", QUEUE_CAPACITY);
+        m.put("active", executor.getActiveCount());
+        m.put("accepted", accepted.sum());
+        m.put("deduplicated", deduplicated.sum());
+        m.put("lockMissed", lockMissed.sum());
+        m.put("shed", shed.sum());
+        m.put("completed", completed.sum());
+        m.put("failed", failed.sum());
+        m.put("avgLatencyMicros", done == 0 ? 0 : latencyNanos.sum() / done / 1000);
+        m.put("maxLatencyMicros", maxLatencyNanos.get() / 1000);
+        return m;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * 估计访问量高的先执行, 相同时先提交的先执行
+     */
+    private static class RebuildTask implements Runnable, Comparable<RebuildTask> {
+        final int hotness;
+        final long seq;
+        final Runnable task;
+
+        RebuildTask(int hotness, long seq, Runnable task) {
+            this.hotness = hotness;
+            this.seq = seq;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public int compareTo(RebuildTask o) {
+            int c = Integer.compare(o.hotness, hotness);
+            return c != 0 ? c : Long.compare(seq, o.seq);
+        }
+    }
+}
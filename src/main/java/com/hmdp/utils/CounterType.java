@@ -0,0 +1,69 @@
+package com.hmdp.utils;
+
+/**
+ * 写回数据库的计数列
+ */
+public enum CounterType {
+    BLOG_LIKED("tb_blog", "id", "liked", RedisConstants.CACHE_BLOG_KEY, false, false),
+    BLOG_COMMENTS("tb_blog", "id", "comments", RedisConstants.CACHE_BLOG_KEY, false, false),
+    // 店铺详情有接口响应缓存
+    SHOP_SOLD("tb_shop", "id", "sold", RedisConstants.CACHE_SHOP_KEY, false, true),
+    SHOP_COMMENTS("tb_shop", "id", "comments", RedisConstants.CACHE_SHOP_KEY, false, true),
+    // 用户详情不一定已经创建, 写回前补齐缺少的行
+    USER_FANS("tb_user_info", "user_id", "fans", RedisConstants.CACHE_USER_INFO_KEY, true, false),
+    USER_FOLLOWEE("tb_user_info", "user_id", "followee", RedisConstants.CACHE_USER_INFO_KEY, true, false);
+
+    private final String table;
+    private final String idColumn;
+    private final String column;
+    private final String cachePrefix;
+    private final boolean createMissing;
+    private final boolean responseCached;
+
+    CounterType(String table, String idColumn, String column, String cachePrefix, boolean createMissing,
+                boolean responseCached) {
+        this.table = table;
+        this.idColumn = idColumn;
+        this.column = column;
+        this.cachePrefix = cachePrefix;
+        this.createMissing = createMissing;
+        this.responseCached = responseCached;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public String getIdColumn() {
+        return idColumn;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    /**
+     * 缓存该表记录的key前缀, 写回后删除
+     */
+    public String getCachePrefix() {
+        return cachePrefix;
+    }
+
+    public boolean isCreateMissing() {
+        return createMissing;
+    }
+
+    /**
+     * 接口响应缓存以 {@link #getCachePrefix()} + id 为键, 响应中带有合并后的计数
+     */
+    public boolean isResponseCached() {
+        return responseCached;
+    }
+
+    /**
+     * 在待写回 hash 中的字段名
+     */
+    public String field(Long id) {
+        return id + ":" + column;
+    }
+}
@@ -0,0 +1,85 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.ScrollResult;
+import org.springframework.data.redis.core.ZSetOperations;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * 多路归并收件箱与大V发件箱
+ * 每一路都是 ZREVRANGEBYSCORE 的结果, 已按 (分数降序, 成员降序) 排好, 与 redis 同分时的顺序一致;
+ * 堆中只保存每一路的当前位置, 大小不超过路数
+ */
+public final class FeedMerger {
+
+    private static final Comparator<ZSetOperations.TypedTuple<String>> ORDER = (a, b) -> {
+        int c = Double.compare(score(b), score(a));
+        return c != 0 ? c : b.getValue().compareTo(a.getValue());
+    };
+
+    private FeedMerger() {
+    }
+
+    /**
+     * 归并一页
+     *
+     * @param sources 各路结果, 每路至少包含分数不大于 max 的前 offset + count 条
+     * @param max 上一页的最小时间戳
+     * @param offset 上一页中与 max 相同的条数, 归并后跳过
+     * @param count 每页条数
+     * @return list 为博文id, minTime、offset 与单个收件箱翻页的含义相同
+     */
+    public static ScrollResult merge(List<List<ZSetOperations.TypedTuple<String>>> sources, long max, int offset, int count) {
+        // 元素为 {路, 下标}
+        PriorityQueue<int[]> heap = new PriorityQueue<>(Math.max(sources.size(), 1),
+                (a, b) -> ORDER.compare(sources.get(a[0]).get(a[1]), sources.get(b[0]).get(b[1])));
+        for (int i = 0; i < sources.size(); i++) {
+            if (!sources.get(i).isEmpty()) {
+                heap.add(new int[]{i, 0});
+            }
+        }
+        List<Long> ids = new ArrayList<>(count);
+        Set<String> seen = new HashSet<>();
+        long minTime = max;
+        int same = 0;
+        int skipped = 0;
+        while (!heap.isEmpty() && ids.size() < count) {
+            int[] head = heap.poll();
+            List<ZSetOperations.TypedTuple<String>> source = sources.get(head[0]);
+            ZSetOperations.TypedTuple<String> tuple = source.get(head[1]);
+            if (head[1] + 1 < source.size()) {
+                heap.add(new int[]{head[0], head[1] + 1});
+            }
+            // 同一篇博文可能同时在收件箱和发件箱中
+            if (!seen.add(tuple.getValue())) {
+                continue;
+            }
+            long time = (long) score(tuple);
+            if (time == max && skipped < offset) {
+                skipped++;
+                continue;
+            }
+            ids.add(Long.valueOf(tuple.getValue()));
+            if (time == minTime) {
+                same++;
+            } else {
+                minTime = time;
+                same = 1;
+            }
+        }
+        ScrollResult r = new ScrollResult();
+        r.setList(ids);
+        r.setMinTime(minTime);
+        r.setOffset(minTime == max ? same + offset : same);
+        return r;
+    }
+
+    private static double score(ZSetOperations.TypedTuple<String> tuple) {
+        return tuple.getScore() == null ? 0 : tuple.getScore();
+    }
+}
@@ -0,0 +1,149 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 本节点的热点key探测
+ * 采样后的访问计入 count-min sketch, 估计值超过阈值的key进入候选集,
+ * 每个窗口用小顶堆选出 top-K 作为热点, 同时把 sketch 计数减半实现衰减
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+
+    // sketch 行数与每行宽度
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 1 << 12;
+    // 采样率 1/8
+    private static final int SAMPLE_RATE = 8;
+    // 一个窗口内采样计数达到该值视为热点
+    private static final int THRESHOLD = 50;
+    // 最多保留的热点数
+    private static final int TOP_K = 32;
+    private static final int MAX_CANDIDATES = 1024;
+    static final long WINDOW_MILLIS = 1000L;
+    // 热点在本地缓存中的存活时间
+    public static final long LOCAL_TTL_SECONDS = 5L;
+
+    private final AtomicIntegerArray sketch = new AtomicIntegerArray(DEPTH * WIDTH);
+    private final Map<String, Integer> candidates = new ConcurrentHashMap<>();
+    private volatile Set<String> hotKeys = Collections.emptySet();
+    private volatile List<Map<String, Object>> topK = Collections.emptyList();
+
+    private final LocalCache localCache;
+
+    /**
+     * @param localCache 热点降级时摘除其中的副本, 不对应本地缓存时传null
+     */
+    public HotKeyDetector(LocalCache localCache) {
+        this.localCache = localCache;
+    }
+
+    /**
+     * 记录一次访问
+     *
+     * @param key 缓存key
+     * @return boolean 该key当前是否为热点
+     */
+    public boolean record(String key) {
+        if (ThreadLocalRandom.current().nextInt(SAMPLE_RATE) == 0) {
+            int estimate = increment(key);
+            if (estimate >= THRESHOLD && candidates.size() < MAX_CANDIDATES) {
+                candidates.put(key, estimate);
+            }
+        }
+        return hotKeys.contains(key);
+    }
+
+    public boolean isHot(String key) {
+        return hotKeys.contains(key);
+    }
+
+    /**
+     * 当前窗口内的估计访问量, 不计入本次访问
+     */
+    public int estimate(String key) {
+        int h1 = key.hashCode();
+        int h2 = (h1 >>> 16) | 1;
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            min = Math.min(min, sketch.get(i * WIDTH + ((h1 + i * h2) & (WIDTH - 1))));
+        }
+        return min * SAMPLE_RATE;
+    }
+
+    /**
+     * 当前热点列表, 按估计访问量降序
+     */
+    public List<Map<String, Object>> getHotKeys() {
+        return topK;
+    }
+
+    /**
+     * 每个窗口重新选出热点, 降温的key和过期的副本从本地缓存中摘除
+     */
+    @Scheduled(fixedRate = WINDOW_MILLIS)
+    public void rotate() {
+        PriorityQueue<Map.Entry<String, Integer>> heap = new PriorityQueue<>(TOP_K + 1, Map.Entry.comparingByValue());
+        for (Map.Entry<String, Integer> e : candidates.entrySet()) {
+            heap.offer(e);
+            if (heap.size() > TOP_K) {
+                heap.poll();
+            }
+        }
+        List<Map<String, Object>> list = new ArrayList<>(heap.size());
+        Set<String> hot = new HashSet<>();
+        while (!heap.isEmpty()) {
+            Map.Entry<String, Integer> e = heap.poll();
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("key", e.getKey());
+            m.put("estimate", e.getValue() * SAMPLE_RATE);
+            list.add(0, m);
+            hot.add(e.getKey());
+        }
+        for (String key : hotKeys) {
+            if (!hot.contains(key) && localCache != null) {
+                localCache.invalidate(key);
+                log.debug("热点key降级 {}", key);
+            }
+        }
+        if (localCache != null) {
+            localCache.purgeExpired();
+        }
+        hotKeys = hot;
+        topK = Collections.unmodifiableList(list);
+        candidates.clear();
+        decay();
+    }
+
+    private int increment(String key) {
+        int h1 = key.hashCode();
+        int h2 = (h1 >>> 16) | 1;
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            int idx = i * WIDTH + ((h1 + i * h2) & (WIDTH - 1));
+            min = Math.min(min, sketch.incrementAndGet(idx));
+        }
+        return min;
+    }
+
+    private void decay() {
+        for (int i = 0; i < sketch.length(); i++) {
+            sketch.set(i, sketch.get(i) >> 1);
+        }
+    }
+}
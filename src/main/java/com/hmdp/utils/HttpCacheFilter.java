@@ -0,0 +1,149 @@
+package com.hmdp.utils;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 读多写少接口的 ETag 缓存
+ * 1. 响应体的 md5 作为强 ETag, 按对应的数据缓存key记录在 {@link HttpResponseCache}
+ * 2. If-None-Match 与记录一致时直接返回 304, 不执行 controller
+ * 3. 热点key同时保存响应体, 命中时直接写出
+ * 4. 店铺详情在这里记录访客, 304 和响应体命中同样计入;
+ *    controller 未标记 {@link #FOUND_ATTRIBUTE} 时说明店铺不存在, 不记录访客也不缓存响应
+ */
+public class HttpCacheFilter extends OncePerRequestFilter {
+
+    private static final Pattern SHOP = Pattern.compile("^/shop/(\\d+)$");
+    private static final Pattern VOUCHER = Pattern.compile("^/voucher/list/(\\d+)$");
+    private static final String SHOP_TYPE = "/shop-type/list";
+
+    /**
+     * controller 查到数据时设置的请求属性
+     */
+    public static final String FOUND_ATTRIBUTE = HttpCacheFilter.class.getName() + ".found";
+
+    private final HttpResponseCache responseCache;
+    private final UvCounter uvCounter;
+
+    public HttpCacheFilter(HttpResponseCache responseCache, UvCounter uvCounter) {
+        this.responseCache = responseCache;
+        this.uvCounter = uvCounter;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Route route = "GET".equals(request.getMethod()) ? route(request.getServletPath()) : null;
+        if (route == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        // 按请求路径计数, 使用响应缓存自己的探测器, 不影响数据缓存的热点
+        boolean hot = responseCache.recordPath(request.getServletPath());
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        HttpResponseCache.Entry entry = responseCache.get(route.key);
+        if (entry != null) {
+            // 只有店铺存在时才会写入记录, 命中即可计入访客
+            recordUv(route, request);
+            if (entry.etag.equals(ifNoneMatch)) {
+                responseCache.recordNotModified();
+                notModified(response, entry.etag);
+                return;
+            }
+            if (entry.body != null) {
+                responseCache.recordBodyHit();
+                response.setHeader(HttpHeaders.ETAG, entry.etag);
+                response.setContentType(entry.contentType);
+                response.setContentLength(entry.body.length);
+                response.getOutputStream().write(entry.body);
+                return;
+            }
+        }
+        responseCache.recordMiss();
+        ContentCachingResponseWrapper wrapper = new ContentCachingResponseWrapper(response);
+        chain.doFilter(request, wrapper);
+        if (wrapper.getStatus() != HttpServletResponse.SC_OK
+                || route.shopId != null && !Boolean.TRUE.equals(request.getAttribute(FOUND_ATTRIBUTE))) {
+            wrapper.copyBodyToResponse();
+            return;
+        }
+        recordUv(route, request);
+        byte[] body = wrapper.getContentAsByteArray();
+        String etag = "\"" + DigestUtil.md5Hex(body) + "\"";
+        responseCache.put(route.key, etag, hot ? body : null, wrapper.getContentType(), route.ttl, TimeUnit.MINUTES);
+        if (etag.equals(ifNoneMatch)) {
+            responseCache.recordNotModified();
+            wrapper.resetBuffer();
+            notModified(response, etag);
+            return;
+        }
+        wrapper.setHeader(HttpHeaders.ETAG, etag);
+        wrapper.copyBodyToResponse();
+    }
+
+    private void recordUv(Route route, HttpServletRequest request) {
+        if (route.shopId != null) {
+            uvCounter.record(UvCounter.Target.SHOP, route.shopId, UvCounter.visitorOf(request));
+        }
+    }
+
+    private static void notModified(HttpServletResponse response, String etag) {
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        response.setHeader(HttpHeaders.ETAG, etag);
+    }
+
+    /**
+     * 请求路径对应的数据缓存key, 数据缓存删除时响应缓存随之失效
+     */
+    private static Route route(String path) {
+        if (SHOP_TYPE.equals(path)) {
+            return new Route(RedisConstants.CACHE_SHOP_TYPE_KEY, RedisConstants.CACHE_SHOP_TYPE_TTL);
+        }
+        Matcher m = SHOP.matcher(path);
+        if (m.matches()) {
+            long id;
+            try {
+                id = Long.parseLong(m.group(1));
+            } catch (NumberFormatException e) {
+                // 超出 long 范围, 交给 controller 返回参数错误
+                return null;
+            }
+            // 响应含未写回的销量、评论数, 计数变化时由 WriteBehindCounter 广播摘除
+            return new Route(RedisConstants.CACHE_SHOP_KEY + id, RedisConstants.CACHE_SHOP_TTL, id);
+        }
+        m = VOUCHER.matcher(path);
+        if (m.matches()) {
+            // 优惠券库存变化不会删除缓存, 有效期与数据缓存一致
+            return new Route(RedisConstants.CACHE_VOUCHER_SHOP_KEY + m.group(1), RedisConstants.CACHE_VOUCHER_SHOP_TTL);
+        }
+        return null;
+    }
+
+    private static class Route {
+        final String key;
+        final long ttl;
+        // 店铺详情的店铺id, 其他接口为null
+        final Long shopId;
+
+        Route(String key, long ttl) {
+            this(key, ttl, null);
+        }
+
+        Route(String key, long ttl, Long shopId) {
+            this.key = key;
+            this.ttl = ttl;
+            this.shopId = shopId;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.hmdp.utils;
+
+import com.hmdp.event.CacheChangeEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 接口响应缓存, 以数据缓存key为键记录响应的 ETag
+ * 热点key同时保存编码好的响应体, 命中时不再执行 controller 和 service
+ * 数据缓存删除时经 {@link RedisConstants#CACHE_INVALIDATE_CHANNEL} 广播同步摘除
+ * 热点按请求路径单独探测, 不占用数据缓存 {@link HotKeyDetector} 的 top-K 名额
+ * 过期条目定时清理; 条目数达到上限时淘汰任意一条再写入
+ */
+@Component
+public class HttpResponseCache {
+
+    private static final int MAX_SIZE = 10000;
+    // 保存响应体的条目上限
+    private static final int MAX_BODIES = 1000;
+    private static final long PURGE_MILLIS = 60000L;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final LongAdder notModified = new LongAdder();
+    private final LongAdder bodyHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bodies = new LongAdder();
+    private final LongAdder bodyBytes = new LongAdder();
+    private final HotKeyDetector pathDetector = new HotKeyDetector(null);
+
+    public Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expireAt < System.currentTimeMillis()) {
+            remove(key, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * 记录一次响应
+     *
+     * @param key 数据缓存key
+     * @param etag 响应体的 ETag
+     * @param body 编码好的响应体, 非热点key传null只记录 ETag
+     * @param contentType 响应类型
+     * @param time 有效时间
+     * @param unit 时间单位
+     */
+    public void put(String key, String etag, byte[] body, String contentType, long time, TimeUnit unit) {
+        if (entries.size() >= MAX_SIZE && !entries.containsKey(key)) {
+            evictOne();
+        }
+        if (body != null && bodies.sum() >= MAX_BODIES) {
+            body = null;
+        }
+        Entry entry = new Entry(etag, body, contentType, System.currentTimeMillis() + unit.toMillis(time));
+        Entry old = entries.put(key, entry);
+        if (old != null && old.body != null) {
+            bodies.decrement();
+            bodyBytes.add(-old.body.length);
+        }
+        if (body != null) {
+            bodies.increment();
+            bodyBytes.add(body.length);
+        }
+    }
+
+    public void invalidate(String key) {
+        Entry old = entries.get(key);
+        if (old != null) {
+            remove(key, old);
+        }
+    }
+
+    /**
+     * 清理过期的条目, 过期后未再访问的key不会在 get 时摘除
+     */
+    @Scheduled(fixedDelay = PURGE_MILLIS)
+    public void purgeExpired() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            if (e.getValue().expireAt < now) {
+                remove(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /**
+     * 数据变更后摘除本节点的响应
+     */
+    @EventListener
+    public void onCacheChange(CacheChangeEvent event) {
+        invalidate(event.getKey());
+    }
+
+    /**
+     * 记录一次请求路径的访问
+     *
+     * @return boolean 该路径当前是否为热点
+     */
+    public boolean recordPath(String path) {
+        return pathDetector.record(path);
+    }
+
+    @Scheduled(fixedRate = HotKeyDetector.WINDOW_MILLIS)
+    public void rotatePaths() {
+        pathDetector.rotate();
+    }
+
+    public void recordNotModified() {
+        notModified.increment();
+    }
+
+    public void recordBodyHit() {
+        bodyHits.increment();
+    }
+
+    public void recordMiss() {
+        misses.increment();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("entries", entries.size());
+        m.put("bodies", bodies.sum());
+        m.put("bodyBytes", bodyBytes.sum());
+        m.put("notModified", notModified.sum());
+        m.put("bodyHits", bodyHits.sum());
+        m.put("misses", misses.sum());
+        m.put("hotPaths", pathDetector.getHotKeys());
+        return m;
+    }
+
+    private void evictOne() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        if (it.hasNext()) {
+            Map.Entry<String, Entry> e = it.next();
+            remove(e.getKey(), e.getValue());
+        }
+    }
+
+    private void remove(String key, Entry entry) {
+        if (entries.remove(key, entry) && entry.body != null) {
+            bodies.decrement();
+            bodyBytes.add(-entry.body.length);
+        }
+    }
+
+    public static class Entry {
+        final String etag;
+        final byte[] body;
+        final String contentType;
+        final long expireAt;
+
+        Entry(String etag, byte[] body, String contentType, long expireAt) {
+            this.etag = etag;
+            this.body = body;
+            this.contentType = contentType;
+            this.expireAt = expireAt;
+        }
+    }
+}
@@ -4,4 +4,22 @@ public interface Ilock {
 
     boolean tryLock(long timeoutSec);
     void unlock();
+
+    /**
+     * 抢到锁才执行, 执行完释放
+     *
+     * @param timeoutSec 锁的过期秒数, 应大于任务的最长耗时
+     * @return boolean 是否抢到锁并执行
+     */
+    default boolean runLocked(long timeoutSec, Runnable action) {
+        if (!tryLock(timeoutSec)) {
+            return false;
+        }
+        try {
+            action.run();
+        } finally {
+            unlock();
+        }
+        return true;
+    }
 }
@@ -0,0 +1,79 @@
+package com.hmdp.utils;
+
+import com.hmdp.event.CacheChangeEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 节点本地缓存, 只存放少量热点key, 条目带较短的过期时间
+ * 集群内的失效通过 Redis 频道 {@link RedisConstants#CACHE_INVALIDATE_CHANNEL} 广播
+ * 过期条目由 {@link HotKeyDetector} 每个窗口清理一次, 达到上限时淘汰任意一条再写入
+ */
+@Component
+public class LocalCache {
+
+    private static final int MAX_SIZE = 1000;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public String get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expireAt < System.currentTimeMillis()) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry.value;
+    }
+
+    public void put(String key, String value, long time, TimeUnit unit) {
+        if (entries.size() >= MAX_SIZE && !entries.containsKey(key)) {
+            Iterator<String> it = entries.keySet().iterator();
+            if (it.hasNext()) {
+                entries.remove(it.next());
+            }
+        }
+        entries.put(key, new Entry(value, System.currentTimeMillis() + unit.toMillis(time)));
+    }
+
+    /**
+     * 摘除过期的条目, 过期后未再读取的key不会在 get 时摘除
+     */
+    public void purgeExpired() {
+        long now = System.currentTimeMillis();
+        entries.entrySet().removeIf(e -> e.getValue().expireAt < now);
+    }
+
+    public void invalidate(String key) {
+        entries.remove(key);
+    }
+
+    /**
+     * 数据变更后摘除本节点的副本
+     */
+    @EventListener
+    public void onCacheChange(CacheChangeEvent event) {
+        invalidate(event.getKey());
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private static class Entry {
+        final String value;
+        final long expireAt;
+
+        Entry(String value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+}
@@ -8,17 +8,97 @@ public class RedisConstants {
 
     public static final Long CACHE_NULL_TTL = 2L;
 
-    public static final Long CACHE_SHOP_TTL = 30L;
+    public static final long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    // 店铺缓存TTL随机抖动比例,避免同一批写入的key同时过期
+    public static final Double CACHE_SHOP_TTL_JITTER = 0.2;
+
+    // 未单独配置前缀的默认TTL抖动比例
+    public static final Double CACHE_TTL_JITTER = 0.1;
+    // XFetch 提前刷新系数,越大越倾向于提前刷新
+    public static final Double CACHE_REFRESH_BETA = 1.0;
+    // XFetch 重建耗时下限(毫秒),避免重建过快时提前刷新窗口过窄
+    public static final Long CACHE_REFRESH_DELTA_FLOOR = 1000L;
+    // 本地缓存失效广播频道,消息内容为缓存key
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    // 接口响应缓存失效广播频道,消息内容为缓存key,数据缓存与本地副本不变
+    public static final String RESPONSE_INVALIDATE_CHANNEL = "cache:response:invalidate";
+    // 延迟双删中第二次删除的延迟(毫秒),应大于一次读库并回写缓存的耗时
+    public static final Long CACHE_DELAY_DELETE_MILLIS = 500L;
+    // 超过该字节数的缓存值压缩后写入
+    public static final Integer CACHE_COMPRESS_THRESHOLD = 512;
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    // 缓存重建锁, 完整key为 lock:{缓存key}
+    public static final String LOCK_CACHE_KEY = "lock:";
+    public static final Long LOCK_CACHE_TTL = 10L;
 
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    // 待写入 tb_blog_like 的点赞变更, 字段为 {blogId}:{userId}, 值为点赞时间戳, 取消点赞为0
+    public static final String BLOG_LIKED_DIRTY_KEY = "blog:liked:dirty";
+    // 点赞写库任务的分布式锁名
+    public static final String BLOG_LIKED_FLUSH_LOCK = "blog:liked:flush";
+    // 热门博文排行, 成员为博文id, 分数为(衰减后的)点赞数
+    public static final String BLOG_HOT_KEY = "blog:hot";
     public static final String FEED_KEY = "feed:";
+    // 用户关注的人, 完整key为 follows:{userId}, 成员为被关注的用户id
+    public static final String FOLLOWS_KEY = "follows:";
+    // 关注集合已从 tb_follow 全量构建的标记
+    public static final String FOLLOWS_READY_KEY = "follows:ready";
+    // 每个收件箱保留的最多博文数
+    public static final long FEED_MAX_SIZE = 1000L;
+    // 大V的发件箱, 粉丝读取时拉取, 完整key为 feed:outbox:{authorId}
+    public static final String FEED_OUTBOX_KEY = "feed:outbox:";
+    // 粉丝数超过阈值、改为拉模式的作者id集合
+    public static final String FEED_BIG_AUTHORS_KEY = "feed:big";
+    // 归并后的关注流分页短暂缓存, 完整key为 feed:page:{userId}:{max}:{offset}
+    public static final String FEED_PAGE_KEY = "feed:page:";
+    public static final long FEED_PAGE_TTL = 5L;
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    // 月度签到位图, 完整key为 sign:{userId}:{yyyyMM}, 第n位(从0起)为1表示第n+1天已签到
     public static final String USER_SIGN_KEY = "sign:";
+    // 位图保留天数, 超过两个月的连续签到改从 tb_sign_month 读取
+    public static final long USER_SIGN_TTL = 62L;
+    // 签到归档任务的分布式锁名
+    public static final String SIGN_ARCHIVE_LOCK = "sign:archive";
     public static final String CACHE_SHOP_TYPE_KEY = "cache:shop:type";
+    public static final long CACHE_SHOP_TYPE_TTL = 30L;
+    // 店铺类型列表版本号, 各节点据此判断内存快照是否过期
+    public static final String CACHE_SHOP_TYPE_VERSION_KEY = "cache:shop:type:version";
+    // 店铺类型版本变更通知频道, 消息内容为新版本号
+    public static final String SHOP_TYPE_VERSION_CHANNEL = "cache:shop:type:changed";
+    // 店铺变更通知频道, 消息内容为店铺id, 各节点据此更新本地的坐标、名称索引
+    public static final String SHOP_CHANGE_CHANNEL = "cache:shop:changed";
+
+    // 店铺优惠券列表含库存,TTL较短
+    public static final String CACHE_VOUCHER_SHOP_KEY = "cache:voucher:shop:";
+    public static final long CACHE_VOUCHER_SHOP_TTL = 1L;
+
+    // 待写回数据库的计数, 完整key为 counter:{表名}, 字段为 {id}:{列名}
+    public static final String COUNTER_KEY = "counter:";
+    // 计数写回任务的分布式锁名
+    public static final String COUNTER_FLUSH_LOCK = "counter:flush";
+
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+    public static final long CACHE_BLOG_TTL = 30L;
+    // 博文评论第一页(含回复), 新增评论后删除
+    public static final String CACHE_BLOG_COMMENTS_KEY = "cache:blog:comments:";
+    public static final long CACHE_BLOG_COMMENTS_TTL = 10L;
+
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_INFO_KEY = "cache:user:info:";
+    public static final long CACHE_USER_INFO_TTL = 30L;
+
+    // 每日访客 HyperLogLog, 完整key为 uv:{shop|blog}:{id}:{yyyyMMdd};
+    // 周、月汇总为 uv:{shop|blog}:{id}:w{周一的yyyyMMdd} 与 uv:{shop|blog}:{id}:m{yyyyMM}
+    public static final String UV_KEY = "uv:";
+    // 每日key保留天数, 需覆盖最长的月份, 月汇总在此之前完成
+    public static final long UV_DAY_TTL = 40L;
+    public static final long UV_ROLLUP_TTL = 400L;
+    // 周、月汇总任务的分布式锁名
+    public static final String UV_ROLLUP_LOCK = "uv:rollup";
 }
@@ -14,9 +14,11 @@ import java.util.concurrent.TimeUnit;
 public class RefresgTokenInterceptor implements HandlerInterceptor {
 
     private StringRedisTemplate stringRedisTemplate;
+    private CacheMetrics cacheMetrics;
 
-    public RefresgTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
+    public RefresgTokenInterceptor(StringRedisTemplate stringRedisTemplate, CacheMetrics cacheMetrics) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheMetrics = cacheMetrics;
     }
 
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {//判断当前拦截到的是Controller的方法还是其他资源
@@ -28,8 +30,14 @@ public class RefresgTokenInterceptor implements HandlerInterceptor {
     //获取基于token的redis中的用户
         Map<Object,Object> userMap = stringRedisTemplate.opsForHash().entries(RedisConstants.LOGIN_USER_KEY + token);
         if (userMap.isEmpty()) {
+        cacheMetrics.recordMiss(RedisConstants.LOGIN_USER_KEY);
         return true;
     }
+    int payloadLength = 0;
+    for (Object value : userMap.values()) {
+        payloadLength += value.toString().length();
+    }
+    cacheMetrics.recordHit(RedisConstants.LOGIN_USER_KEY, payloadLength);
     //放行
     //将HashMap中的user转为UserDTO
     UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
@@ -0,0 +1,342 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程内的店铺坐标网格索引, 按店铺类型分别建立
+ * 1. 经纬度按固定边长划分网格, 每个网格保存落在其中的店铺下标, 坐标存放在基本类型数组中
+ * 2. 每个类型的网格创建后不再修改, 店铺变更时复制出新网格再替换, 查询不加锁
+ * 3. 距离算法与 redis GEO 相同, 两者的查询结果可以互换
+ */
+@Component
+public class ShopGeoIndex {
+
+    // 网格边长(度), 纬度方向约 1.1km
+    private static final double CELL_DEGREES = 0.01;
+    // 与 redis GEO 使用的地球半径一致
+    private static final double EARTH_RADIUS = 6372797.560856;
+    private static final double METERS_PER_DEGREE = EARTH_RADIUS * Math.PI / 180;
+    // 半个地球周长, k近邻扩大半径的上限
+    private static final double MAX_RADIUS = Math.PI * EARTH_RADIUS;
+
+    private final Map<Long, TypeGrid> grids = new ConcurrentHashMap<>();
+    private final Map<Long, Long> typeOfShop = new ConcurrentHashMap<>();
+    private volatile boolean ready;
+
+    /**
+     * 是否已完成全量构建
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    public int size() {
+        return typeOfShop.size();
+    }
+
+    /**
+     * 全量重建, 缺少类型或坐标的店铺不进入索引
+     *
+     * @param shops 店铺, 只需要 id、typeId、x、y
+     */
+    public synchronized void rebuild(Collection<Shop> shops) {
+        Map<Long, List<Shop>> byType = new HashMap<>();
+        for (Shop shop : shops) {
+            if (indexable(shop)) {
+                byType.computeIfAbsent(shop.getTypeId(), k -> new ArrayList<>()).add(shop);
+            }
+        }
+        Map<Long, TypeGrid> next = new HashMap<>(byType.size() * 2);
+        Map<Long, Long> nextTypes = new HashMap<>(shops.size() * 2);
+        for (Map.Entry<Long, List<Shop>> entry : byType.entrySet()) {
+            List<Shop> list = entry.getValue();
+            long[] ids = new long[list.size()];
+            double[] xs = new double[list.size()];
+            double[] ys = new double[list.size()];
+            for (int i = 0; i < list.size(); i++) {
+                Shop shop = list.get(i);
+                ids[i] = shop.getId();
+                xs[i] = shop.getX();
+                ys[i] = shop.getY();
+                nextTypes.put(shop.getId(), entry.getKey());
+            }
+            next.put(entry.getKey(), new TypeGrid(ids, xs, ys));
+        }
+        grids.keySet().retainAll(next.keySet());
+        grids.putAll(next);
+        typeOfShop.keySet().retainAll(nextTypes.keySet());
+        typeOfShop.putAll(nextTypes);
+        ready = true;
+    }
+
+    /**
+     * 新增或更新一个店铺, 类型变化时从原类型中移除
+     */
+    public synchronized void put(Shop shop) {
+        remove(shop.getId());
+        if (!indexable(shop)) {
+            return;
+        }
+        TypeGrid grid = grids.get(shop.getTypeId());
+        grids.put(shop.getTypeId(), grid == null
+                ? new TypeGrid(new long[]{shop.getId()}, new double[]{shop.getX()}, new double[]{shop.getY()})
+                : grid.with(shop.getId(), shop.getX(), shop.getY()));
+        typeOfShop.put(shop.getId(), shop.getTypeId());
+    }
+
+    public synchronized void remove(Long id) {
+        Long typeId = typeOfShop.remove(id);
+        if (typeId == null) {
+            return;
+        }
+        TypeGrid grid = grids.get(typeId);
+        if (grid != null) {
+            grids.put(typeId, grid.without(id));
+        }
+    }
+
+    /**
+     * 半径查询, 按距离由近到远
+     *
+     * @param typeId 店铺类型
+     * @param x 经度
+     * @param y 纬度
+     * @param radius 半径(米)
+     * @param limit 最多返回条数
+     * @return 店铺id及距离
+     */
+    public List<Hit> search(Long typeId, double x, double y, double radius, int limit) {
+        TypeGrid grid = grids.get(typeId);
+        if (grid == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+        return grid.nearest(x, y, radius, limit);
+    }
+
+    /**
+     * k近邻查询, 从一个网格的范围开始逐步扩大半径
+     *
+     * @param typeId 店铺类型
+     * @param x 经度
+     * @param y 纬度
+     * @param k 返回条数
+     * @return 店铺id及距离, 按距离由近到远
+     */
+    public List<Hit> nearest(Long typeId, double x, double y, int k) {
+        TypeGrid grid = grids.get(typeId);
+        if (grid == null || k <= 0) {
+            return Collections.emptyList();
+        }
+        double radius = CELL_DEGREES * METERS_PER_DEGREE;
+        while (true) {
+            List<Hit> hits = search(typeId, x, y, radius, k);
+            if (hits.size() >= k || hits.size() == grid.ids.length || radius >= MAX_RADIUS) {
+                return hits;
+            }
+            radius = Math.min(radius * 2, MAX_RADIUS);
+        }
+    }
+
+    private static boolean indexable(Shop shop) {
+        return shop.getId() != null && shop.getTypeId() != null && shop.getX() != null && shop.getY() != null;
+    }
+
+    private static long cell(double x, double y) {
+        return cellKey((int) Math.floor(x / CELL_DEGREES), (int) Math.floor(y / CELL_DEGREES));
+    }
+
+    private static long cellKey(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
+
+    /**
+     * haversine 距离(米)
+     */
+    static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+    }
+
+    public static class Hit {
+        private final long id;
+        private final double distance;
+
+        public Hit(long id, double distance) {
+            this.id = id;
+            this.distance = distance;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public double getDistance() {
+            return distance;
+        }
+    }
+
+    /**
+     * 一个类型的网格, 创建后不再修改
+     */
+    private static final class TypeGrid {
+        final long[] ids;
+        final double[] xs;
+        final double[] ys;
+        // 网格 -> 落在其中的店铺下标
+        final Map<Long, int[]> cells;
+
+        TypeGrid(long[] ids, double[] xs, double[] ys) {
+            this.ids = ids;
+            this.xs = xs;
+            this.ys = ys;
+            // 先数出每个网格的店铺数, 再按数量分配数组填入下标
+            Map<Long, int[]> counts = new HashMap<>();
+            for (int i = 0; i < ids.length; i++) {
+                counts.computeIfAbsent(cell(xs[i], ys[i]), k -> new int[1])[0]++;
+            }
+            Map<Long, int[]> built = new HashMap<>(counts.size() * 2);
+            for (Map.Entry<Long, int[]> entry : counts.entrySet()) {
+                built.put(entry.getKey(), new int[entry.getValue()[0]]);
+                entry.getValue()[0] = 0;
+            }
+            for (int i = 0; i < ids.length; i++) {
+                long cell = cell(xs[i], ys[i]);
+                built.get(cell)[counts.get(cell)[0]++] = i;
+            }
+            this.cells = built;
+        }
+
+        TypeGrid with(long id, double x, double y) {
+            int n = ids.length;
+            long[] nextIds = Arrays.copyOf(ids, n + 1);
+            double[] nextXs = Arrays.copyOf(xs, n + 1);
+            double[] nextYs = Arrays.copyOf(ys, n + 1);
+            nextIds[n] = id;
+            nextXs[n] = x;
+            nextYs[n] = y;
+            return new TypeGrid(nextIds, nextXs, nextYs);
+        }
+
+        TypeGrid without(long id) {
+            int n = ids.length;
+            long[] nextIds = new long[n];
+            double[] nextXs = new double[n];
+            double[] nextYs = new double[n];
+            int j = 0;
+            for (int i = 0; i < n; i++) {
+                if (ids[i] != id) {
+                    nextIds[j] = ids[i];
+                    nextXs[j] = xs[i];
+                    nextYs[j] = ys[i];
+                    j++;
+                }
+            }
+            if (j == n) {
+                return this;
+            }
+            return new TypeGrid(Arrays.copyOf(nextIds, j), Arrays.copyOf(nextXs, j),
+                    Arrays.copyOf(nextYs, j));
+        }
+
+        /**
+         * 半径内最近的 limit 个店铺, 只计算候选网格中的店铺
+         */
+        List<Hit> nearest(double x, double y, double radius, int limit) {
+            // 最多只有 ids.length 个结果, 按店铺数分配 TopK, 不受页码影响
+            limit = Math.min(limit, ids.length);
+            if (limit <= 0) {
+                return Collections.emptyList();
+            }
+            double dy = radius / METERS_PER_DEGREE;
+            double dx = dy / Math.max(Math.cos(Math.toRadians(y)), 0.01);
+            int minX = (int) Math.floor((x - dx) / CELL_DEGREES);
+            int maxX = (int) Math.floor((x + dx) / CELL_DEGREES);
+            int minY = (int) Math.floor((y - dy) / CELL_DEGREES);
+            int maxY = (int) Math.floor((y + dy) / CELL_DEGREES);
+            TopK top = new TopK(limit, radius);
+            long span = (long) (maxX - minX + 1) * (maxY - minY + 1);
+            if (span > cells.size()) {
+                // 范围覆盖的网格比已有网格还多, 直接遍历全部店铺
+                for (int i = 0; i < ids.length; i++) {
+                    offer(top, i, x, y);
+                }
+                return top.toHits(ids);
+            }
+            for (int cx = minX; cx <= maxX; cx++) {
+                for (int cy = minY; cy <= maxY; cy++) {
+                    int[] slots = cells.get(cellKey(cx, cy));
+                    if (slots == null) {
+                        continue;
+                    }
+                    for (int i : slots) {
+                        offer(top, i, x, y);
+                    }
+                }
+            }
+            return top.toHits(ids);
+        }
+
+        private void offer(TopK top, int i, double x, double y) {
+            // 纬度差对应的弧长是距离的下界, 超过当前第k近时不必计算三角函数
+            if (Math.abs(ys[i] - y) * METERS_PER_DEGREE > top.bound()) {
+                return;
+            }
+            top.offer(i, distance(x, y, xs[i], ys[i]));
+        }
+    }
+
+    /**
+     * 保留距离最小的k个下标, k 很小, 用有序数组插入
+     */
+    private static final class TopK {
+        final int[] slots;
+        final double[] distances;
+        final double radius;
+        int size;
+
+        TopK(int k, double radius) {
+            this.slots = new int[k];
+            this.distances = new double[k];
+            this.radius = radius;
+        }
+
+        double bound() {
+            return size < slots.length ? radius : distances[size - 1];
+        }
+
+        void offer(int slot, double d) {
+            if (d > bound() || (size == slots.length && d == distances[size - 1])) {
+                return;
+            }
+            int pos = size < slots.length ? size++ : size - 1;
+            while (pos > 0 && distances[pos - 1] > d) {
+                distances[pos] = distances[pos - 1];
+                slots[pos] = slots[pos - 1];
+                pos--;
+            }
+            distances[pos] = d;
+            slots[pos] = slot;
+        }
+
+        List<Hit> toHits(long[] ids) {
+            List<Hit> hits = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                hits.add(new Hit(ids[slots[i]], distances[i]));
+            }
+            return hits;
+        }
+    }
+}
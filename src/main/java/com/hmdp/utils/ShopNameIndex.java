@@ -0,0 +1,318 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.ScrollResult;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 店铺名称的 n-gram 倒排索引, 替代 name LIKE '%关键字%' 的全表扫描
+ * 1. 名称去空白、转小写后切成单字和相邻两字, 中文名称不需要分词
+ * 2. 倒排表是升序的 int 数组, 元素为文档槽位; 修改时复制出新数组再替换, 查询不加锁
+ * 3. 多个两字词求交集后再用 contains 校验, 结果与 LIKE 一致
+ * 4. 按相关度降序、店铺id升序排列, 用 (上一页最小相关度, 偏移量) 翻页
+ */
+@Component
+public class ShopNameIndex {
+
+    private static final int[] EMPTY = new int[0];
+
+    private final Map<String, int[]> postings = new ConcurrentHashMap<>();
+    // 以下只在写锁内访问
+    private final Map<Long, Integer> slotOf = new HashMap<>();
+    private volatile Docs docs = new Docs(new long[16], new String[16]);
+    private int nextSlot;
+    private volatile boolean ready;
+
+    /**
+     * 是否已完成全量构建, 未完成时调用方应退回 SQL
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    public synchronized int size() {
+        return slotOf.size();
+    }
+
+    /**
+     * 全量重建
+     *
+     * @param names 店铺id -> 名称
+     */
+    public synchronized void rebuild(Map<Long, String> names) {
+        int n = names.size();
+        long[] ids = new long[Math.max(n, 16)];
+        String[] texts = new String[ids.length];
+        Map<String, int[]> counts = new HashMap<>();
+        List<Set<String>> tokensOfSlot = new ArrayList<>(n);
+        slotOf.clear();
+        int slot = 0;
+        for (Map.Entry<Long, String> entry : names.entrySet()) {
+            String text = normalize(entry.getValue());
+            ids[slot] = entry.getKey();
+            texts[slot] = text;
+            slotOf.put(entry.getKey(), slot);
+            Set<String> tokens = tokens(text);
+            tokensOfSlot.add(tokens);
+            for (String token : tokens) {
+                counts.computeIfAbsent(token, k -> new int[1])[0]++;
+            }
+            slot++;
+        }
+        // 按词频分配数组, 槽位递增填入, 倒排表天然有序
+        Map<String, int[]> built = new HashMap<>(counts.size() * 2);
+        for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+            built.put(entry.getKey(), new int[entry.getValue()[0]]);
+            entry.getValue()[0] = 0;
+        }
+        for (int i = 0; i < tokensOfSlot.size(); i++) {
+            for (String token : tokensOfSlot.get(i)) {
+                built.get(token)[counts.get(token)[0]++] = i;
+            }
+        }
+        docs = new Docs(ids, texts);
+        nextSlot = slot;
+        postings.keySet().retainAll(built.keySet());
+        postings.putAll(built);
+        ready = true;
+    }
+
+    /**
+     * 新增或修改一个店铺的名称
+     */
+    public synchronized void put(Long id, String name) {
+        String text = normalize(name);
+        Integer slot = slotOf.get(id);
+        if (slot != null) {
+            String old = docs.texts[slot];
+            if (text.equals(old)) {
+                return;
+            }
+            if (old != null) {
+                for (String token : tokens(old)) {
+                    removePosting(token, slot);
+                }
+            }
+        } else {
+            slot = nextSlot++;
+            ensureCapacity(slot + 1);
+            docs.ids[slot] = id;
+            slotOf.put(id, slot);
+        }
+        // 先写文档再发布倒排表, 查询从倒排表读到槽位时文档一定已经可见
+        docs.texts[slot] = text;
+        for (String token : tokens(text)) {
+            addPosting(token, slot);
+        }
+    }
+
+    public synchronized void remove(Long id) {
+        Integer slot = slotOf.remove(id);
+        if (slot == null) {
+            return;
+        }
+        String old = docs.texts[slot];
+        if (old != null) {
+            for (String token : tokens(old)) {
+                removePosting(token, slot);
+            }
+        }
+        docs.texts[slot] = null;
+    }
+
+    /**
+     * 按相关度滚动查询
+     *
+     * @param keyword 关键字
+     * @param max 上一页最后一条的相关度, 第一页传 Long.MAX_VALUE
+     * @param offset 上一页中与 max 相关度相同的条数, 第一页传0
+     * @param limit 每页条数
+     * @return list 为店铺id, minTime 为本页最后一条的相关度
+     */
+    public ScrollResult search(String keyword, long max, int offset, int limit) {
+        if (limit <= 0) {
+            ScrollResult r = new ScrollResult();
+            r.setList(new ArrayList<>());
+            r.setMinTime(max);
+            r.setOffset(offset);
+            return r;
+        }
+        String query = normalize(keyword);
+        Docs current = docs;
+        List<long[]> hits = new ArrayList<>();
+        for (int slot : candidates(query)) {
+            if (slot >= current.texts.length) {
+                continue;
+            }
+            String text = current.texts[slot];
+            if (text == null || !text.contains(query)) {
+                continue;
+            }
+            long score = score(query, text);
+            if (score <= max) {
+                hits.add(new long[]{score, current.ids[slot]});
+            }
+        }
+        hits.sort((a, b) -> a[0] != b[0] ? Long.compare(b[0], a[0]) : Long.compare(a[1], b[1]));
+        // 跳过上一页已经返回的同分数据
+        int from = 0;
+        while (from < hits.size() && from < offset && hits.get(from)[0] == max) {
+            from++;
+        }
+        List<Long> ids = new ArrayList<>(Math.min(limit, hits.size() - from));
+        long minScore = max;
+        int os = 0;
+        for (int i = from; i < hits.size() && ids.size() < limit; i++) {
+            long[] hit = hits.get(i);
+            ids.add(hit[1]);
+            if (hit[0] == minScore) {
+                os++;
+            } else {
+                minScore = hit[0];
+                os = 1;
+            }
+        }
+        ScrollResult r = new ScrollResult();
+        r.setList(ids);
+        r.setMinTime(minScore);
+        // 本页最后的同分数据都与上一页同分时, 偏移量需要累加
+        r.setOffset(minScore == max ? os + from : os);
+        return r;
+    }
+
+    /**
+     * 相关度: 完全相同 > 前缀 > 包含, 同类中关键字占名称的比例越高越靠前
+     */
+    static long score(String query, String text) {
+        int type = text.equals(query) ? 3 : text.startsWith(query) ? 2 : 1;
+        return type * 1000L + Math.min(999, query.length() * 1000L / Math.max(text.length(), 1));
+    }
+
+    static String normalize(String name) {
+        return name == null ? "" : StrUtil.cleanBlank(name).toLowerCase();
+    }
+
+    /**
+     * 名称切出的单字和两字词
+     */
+    static Set<String> tokens(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        for (int i = 0; i < text.length(); i++) {
+            tokens.add(text.substring(i, i + 1));
+            if (i + 1 < text.length()) {
+                tokens.add(text.substring(i, i + 2));
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * 关键字对应的候选槽位: 单字直接取倒排表, 多字对所有两字词的倒排表求交集
+     */
+    private int[] candidates(String query) {
+        if (query.isEmpty()) {
+            return EMPTY;
+        }
+        if (query.length() == 1) {
+            return postings.getOrDefault(query, EMPTY);
+        }
+        List<int[]> lists = new ArrayList<>(query.length() - 1);
+        for (int i = 0; i + 1 < query.length(); i++) {
+            int[] list = postings.get(query.substring(i, i + 2));
+            if (list == null) {
+                return EMPTY;
+            }
+            lists.add(list);
+        }
+        // 从最短的开始求交集
+        lists.sort((a, b) -> Integer.compare(a.length, b.length));
+        int[] result = lists.get(0);
+        for (int i = 1; i < lists.size() && result.length > 0; i++) {
+            result = intersect(result, lists.get(i));
+        }
+        return result;
+    }
+
+    private static int[] intersect(int[] small, int[] large) {
+        int[] out = new int[small.length];
+        int n = 0;
+        int from = 0;
+        for (int v : small) {
+            int pos = Arrays.binarySearch(large, from, large.length, v);
+            if (pos >= 0) {
+                out[n++] = v;
+                from = pos + 1;
+            } else {
+                from = -pos - 1;
+            }
+            if (from >= large.length) {
+                break;
+            }
+        }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    private void addPosting(String token, int slot) {
+        int[] list = postings.getOrDefault(token, EMPTY);
+        int pos = Arrays.binarySearch(list, slot);
+        if (pos >= 0) {
+            return;
+        }
+        pos = -pos - 1;
+        int[] next = new int[list.length + 1];
+        System.arraycopy(list, 0, next, 0, pos);
+        next[pos] = slot;
+        System.arraycopy(list, pos, next, pos + 1, list.length - pos);
+        postings.put(token, next);
+    }
+
+    private void removePosting(String token, int slot) {
+        int[] list = postings.get(token);
+        if (list == null) {
+            return;
+        }
+        int pos = Arrays.binarySearch(list, slot);
+        if (pos < 0) {
+            return;
+        }
+        if (list.length == 1) {
+            postings.remove(token);
+            return;
+        }
+        int[] next = new int[list.length - 1];
+        System.arraycopy(list, 0, next, 0, pos);
+        System.arraycopy(list, pos + 1, next, pos, list.length - pos - 1);
+        postings.put(token, next);
+    }
+
+    private void ensureCapacity(int capacity) {
+        Docs current = docs;
+        if (capacity <= current.ids.length) {
+            return;
+        }
+        int length = Math.max(capacity, current.ids.length * 2);
+        docs = new Docs(Arrays.copyOf(current.ids, length), Arrays.copyOf(current.texts, length));
+    }
+
+    /**
+     * 槽位 -> 店铺id、规范化后的名称; 扩容时整体替换
+     */
+    private static final class Docs {
+        final long[] ids;
+        final String[] texts;
+
+        Docs(long[] ids, String[] texts) {
+            this.ids = ids;
+            this.texts = texts;
+        }
+    }
+}
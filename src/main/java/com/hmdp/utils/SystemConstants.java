@@ -5,4 +5,8 @@ public class SystemConstants {
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    // 按页码查询时允许的最大页码, 距离、相关度排序需要取出前 current*pageSize 条
+    public static final int MAX_PAGE_NUMBER = 100;
+    // 附近店铺搜索半径(米)
+    public static final double SHOP_NEARBY_RADIUS = 5000;
 }
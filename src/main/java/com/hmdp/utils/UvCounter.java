@@ -0,0 +1,322 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.http.HttpServletRequest;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 店铺、博文的每日访客数(UV)
+ * 1. 访问先进入本地队列, 定时按 key 去重后一次 pipeline: 每个 key 一条 PFADD 加 EXPIRE
+ * 2. 每个 key 是一个 HyperLogLog, 不论访客多少最多约 12KB, 标准误差 0.81%
+ * 3. 周、月访客数用 PFMERGE 汇总到单独的 key; 已结束的周期汇总一次后直接 PFCOUNT,
+ *    进行中的周期用多 key PFCOUNT 临时求并集, 不写入
+ * 4. 队列积压超过上限时丢弃新访问, 统计值允许少量误差
+ * 5. 访客按用户id去重; 拦截器之前只能拿到 token 的访问, 写入前批量换成用户id
+ */
+@Slf4j
+@Component
+public class UvCounter {
+
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final int MAX_QUEUED = 100000;
+    private static final String USER_VISITOR = "u:";
+    private static final String TOKEN_VISITOR = "t:";
+
+    public enum Target {
+        SHOP, BLOG;
+
+        final String prefix = RedisConstants.UV_KEY + name().toLowerCase() + ":";
+    }
+
+    public enum Period {
+        DAY, WEEK, MONTH
+    }
+
+    private final ConcurrentLinkedQueue<String[]> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder views = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder pfadds = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public UvCounter(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 访客标识: 已登录取用户id, 只有 token 时写入前再换成用户id, 未登录取客户端地址
+     */
+    public static String visitorOf(HttpServletRequest request) {
+        UserDTO user = UserHolder.getUser();
+        if (user != null) {
+            return USER_VISITOR + user.getId();
+        }
+        String token = request.getHeader("authorization");
+        return StrUtil.isNotBlank(token) ? TOKEN_VISITOR + token : "ip:" + request.getRemoteAddr();
+    }
+
+    /**
+     * 记录一次访问, 只写入本地队列
+     */
+    public void record(Target target, Long id, String visitor) {
+        if (id == null) {
+            return;
+        }
+        views.increment();
+        if (queued.incrementAndGet() > MAX_QUEUED) {
+            queued.decrementAndGet();
+            dropped.increment();
+            return;
+        }
+        queue.offer(new String[]{dayKey(target, id, LocalDate.now()), visitor});
+    }
+
+    /**
+     * 定时把队列中的访问写入 redis, 每个节点各自执行
+     */
+    @Scheduled(fixedDelayString = "${hmdp.uv.flush-millis:1000}")
+    public void flush() {
+        Map<String, Set<String>> byKey = new HashMap<>();
+        String[] view;
+        while ((view = queue.poll()) != null) {
+            queued.decrementAndGet();
+            byKey.computeIfAbsent(view[0], k -> new LinkedHashSet<>()).add(view[1]);
+        }
+        if (byKey.isEmpty()) {
+            return;
+        }
+        long ttl = TimeUnit.DAYS.toSeconds(RedisConstants.UV_DAY_TTL);
+        try {
+            Map<String, String> users = resolveTokens(byKey);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection redis = (StringRedisConnection) connection;
+                for (Map.Entry<String, Set<String>> entry : byKey.entrySet()) {
+                    Set<String> visitors = new LinkedHashSet<>();
+                    for (String visitor : entry.getValue()) {
+                        visitors.add(users.getOrDefault(visitor, visitor));
+                    }
+                    redis.pfAdd(entry.getKey(), visitors.toArray(new String[0]));
+                    redis.expire(entry.getKey(), ttl);
+                }
+                return null;
+            });
+            pfadds.add(byKey.size());
+            flushes.increment();
+        } catch (Exception e) {
+            // 访客数允许少量误差, 不重试
+            failed.increment();
+            log.error("访客记录写入失败, 丢弃 {} 个key", byKey.size(), e);
+        }
+    }
+
+    /**
+     * 一次 pipeline 把 token 换成用户id, 登录已过期的 token 保持原样
+     *
+     * @return token访客 -> 用户访客
+     */
+    private Map<String, String> resolveTokens(Map<String, Set<String>> byKey) {
+        Set<String> tokens = new LinkedHashSet<>();
+        for (Set<String> visitors : byKey.values()) {
+            for (String visitor : visitors) {
+                if (visitor.startsWith(TOKEN_VISITOR)) {
+                    tokens.add(visitor);
+                }
+            }
+        }
+        if (tokens.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        List<String> distinct = new ArrayList<>(tokens);
+        List<Object> ids = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection redis = (StringRedisConnection) connection;
+            for (String visitor : distinct) {
+                redis.hGet(RedisConstants.LOGIN_USER_KEY + visitor.substring(TOKEN_VISITOR.length()), "id");
+            }
+            return null;
+        });
+        Map<String, String> users = new HashMap<>(distinct.size() * 2);
+        for (int i = 0; i < distinct.size(); i++) {
+            Object id = ids.get(i);
+            if (id != null) {
+                users.put(distinct.get(i), USER_VISITOR + id);
+            }
+        }
+        return users;
+    }
+
+    /**
+     * 查询访客数
+     *
+     * @param date 周期内的任意一天
+     * @return 估计的去重访客数
+     */
+    public long count(Target target, Long id, Period period, LocalDate date) {
+        if (period == Period.DAY) {
+            return pfCount(dayKey(target, id, date));
+        }
+        LocalDate today = LocalDate.now();
+        LocalDate from = startOf(period, date);
+        LocalDate to = endOf(period, date);
+        if (from.isAfter(today)) {
+            return 0;
+        }
+        if (!to.isBefore(today)) {
+            // 周期未结束, 临时求并集
+            return pfCount(dayKeys(target, id, from, today));
+        }
+        String key = rollupKey(target, id, period, from);
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+            return pfCount(key);
+        }
+        // 每日 key 都不存在时不写汇总 key, 避免为没有访问的 id 留下长期 key
+        return rollup(target, id, period, date) ? pfCount(key) : pfCount(dayKeys(target, id, from, to));
+    }
+
+    /**
+     * 把一个已结束周期的每日 key 合并到汇总 key, PFMERGE 幂等, 可重复执行
+     *
+     * @param date 周期内的任意一天
+     * @return 是否写入了汇总 key, 周期内没有任何每日 key 时不写入
+     */
+    public boolean rollup(Target target, Long id, Period period, LocalDate date) {
+        if (period == Period.DAY) {
+            return false;
+        }
+        LocalDate from = startOf(period, date);
+        String key = rollupKey(target, id, period, from);
+        List<String> sources = dayKeys(target, id, from, endOf(period, date));
+        Long existing = stringRedisTemplate.countExistingKeys(sources);
+        if (existing == null || existing == 0) {
+            return false;
+        }
+        stringRedisTemplate.opsForHyperLogLog().union(key, sources.toArray(new String[0]));
+        stringRedisTemplate.expire(key, RedisConstants.UV_ROLLUP_TTL, TimeUnit.DAYS);
+        return true;
+    }
+
+    /**
+     * 从每日 key 解析出 (目标, id, 日期), 不是每日 key 时返回null
+     */
+    public static DayKey parseDayKey(String key) {
+        for (Target target : Target.values()) {
+            if (!key.startsWith(target.prefix)) {
+                continue;
+            }
+            int sep = key.lastIndexOf(':');
+            String day = key.substring(sep + 1);
+            if (sep <= target.prefix.length() || day.length() != 8 || !StrUtil.isNumeric(day)) {
+                return null;
+            }
+            String id = key.substring(target.prefix.length(), sep);
+            if (!StrUtil.isNumeric(id)) {
+                return null;
+            }
+            return new DayKey(target, Long.valueOf(id), LocalDate.parse(day, DAY_FORMAT));
+        }
+        return null;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("views", views.sum());
+        m.put("queued", queued.get());
+        m.put("dropped", dropped.sum());
+        m.put("pfadds", pfadds.sum());
+        m.put("flushes", flushes.sum());
+        m.put("failed", failed.sum());
+        return m;
+    }
+
+    /**
+     * 周期的第一天, 周从周一开始
+     */
+    public static LocalDate startOf(Period period, LocalDate date) {
+        return period == Period.WEEK ? date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY))
+                : period == Period.MONTH ? date.withDayOfMonth(1) : date;
+    }
+
+    /**
+     * 周期的最后一天, 周到周日结束
+     */
+    public static LocalDate endOf(Period period, LocalDate date) {
+        return period == Period.WEEK ? date.with(TemporalAdjusters.nextOrSame(DayOfWeek.SUNDAY))
+                : period == Period.MONTH ? date.with(TemporalAdjusters.lastDayOfMonth()) : date;
+    }
+
+    private long pfCount(String... keys) {
+        Long count = stringRedisTemplate.opsForHyperLogLog().size(keys);
+        return count == null ? 0 : count;
+    }
+
+    private long pfCount(List<String> keys) {
+        return pfCount(keys.toArray(new String[0]));
+    }
+
+    private static String dayKey(Target target, Long id, LocalDate date) {
+        return target.prefix + id + ":" + date.format(DAY_FORMAT);
+    }
+
+    private static List<String> dayKeys(Target target, Long id, LocalDate from, LocalDate to) {
+        List<String> keys = new ArrayList<>();
+        for (LocalDate d = from; !d.isAfter(to); d = d.plusDays(1)) {
+            keys.add(dayKey(target, id, d));
+        }
+        return keys;
+    }
+
+    private static String rollupKey(Target target, Long id, Period period, LocalDate from) {
+        return period == Period.WEEK ? target.prefix + id + ":w" + from.format(DAY_FORMAT)
+                : target.prefix + id + ":m" + from.format(MONTH_FORMAT);
+    }
+
+    public static class DayKey {
+        private final Target target;
+        private final Long id;
+        private final LocalDate date;
+
+        DayKey(Target target, Long id, LocalDate date) {
+            this.target = target;
+            this.id = id;
+            this.date = date;
+        }
+
+        public Target getTarget() {
+            return target;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public LocalDate getDate() {
+            return date;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import com.hmdp.dto.CounterDelta;
+import com.hmdp.mapper.CounterMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 计数写回
+ * 1. 点赞、评论、销量等计数先 HINCRBY 到 redis 的 counter:{表名} hash, 不再每次更新数据库行
+ * 2. 定时把整张 hash RENAME 为 counter:{表名}:flushing, 按列聚合后用 CASE WHEN 批量 UPDATE
+ * 3. 每个批次带一个id, 与计数更新在同一事务中写入 tb_counter_flush; 写库后宕机重试时发现批次已存在就只删除 redis,
+ *    同一批次不会重复累加
+ * 4. 读取时把两个 hash 中尚未写回的增量加到数据库的值上
+ * 5. 接口响应带着合并后的计数, 累加时经 {@link RedisConstants#RESPONSE_INVALIDATE_CHANNEL} 广播摘除各节点的响应;
+ *    数据缓存不含增量, 写回后才删除
+ */
+@Slf4j
+@Component
+public class WriteBehindCounter {
+
+    private static final String FLUSHING_SUFFIX = ":flushing";
+    // flushing hash 中保存批次id的字段
+    private static final String FLUSH_ID_FIELD = "#flush";
+    private static final int BATCH_SIZE = 500;
+    private static final long FLUSH_LOCK_SECONDS = 60;
+    // 批次记录保留时间
+    private static final long FLUSH_RECORD_DAYS = 1;
+
+    private final LongAdder increments = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushedRows = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile long lastFlushMillis;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final CounterMapper counterMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final CacheClient cacheClient;
+
+    public WriteBehindCounter(StringRedisTemplate stringRedisTemplate, CounterMapper counterMapper,
+                              TransactionTemplate transactionTemplate, CacheClient cacheClient) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.counterMapper = counterMapper;
+        this.transactionTemplate = transactionTemplate;
+        this.cacheClient = cacheClient;
+    }
+
+    /**
+     * 累加计数
+     *
+     * @param type 计数列
+     * @param id 行id
+     * @param delta 增量, 可以为负
+     */
+    public void increment(CounterType type, Long id, long delta) {
+        stringRedisTemplate.opsForHash().increment(RedisConstants.COUNTER_KEY + type.getTable(), type.field(id), delta);
+        if (type.isResponseCached()) {
+            stringRedisTemplate.convertAndSend(RedisConstants.RESPONSE_INVALIDATE_CHANNEL, type.getCachePrefix() + id);
+        }
+        increments.increment();
+    }
+
+    /**
+     * 尚未写回数据库的增量
+     */
+    public long pending(CounterType type, Long id) {
+        return pending(type, Collections.singletonList(id)).getOrDefault(id, 0L);
+    }
+
+    /**
+     * 查询同一行多个计数列尚未写回的增量, 两个 hash 各一次 HMGET
+     *
+     * @param types 同一张表的计数列
+     * @return 计数列 -> 增量, 没有增量时为0
+     */
+    public Map<CounterType, Long> pending(Long id, CounterType... types) {
+        Map<CounterType, Long> result = new LinkedHashMap<>();
+        List<Object> fields = new ArrayList<>(types.length);
+        for (CounterType type : types) {
+            result.put(type, 0L);
+            fields.add(type.field(id));
+        }
+        if (types.length == 0) {
+            return result;
+        }
+        String key = RedisConstants.COUNTER_KEY + types[0].getTable();
+        for (String k : new String[]{key, key + FLUSHING_SUFFIX}) {
+            List<Object> values = stringRedisTemplate.opsForHash().multiGet(k, fields);
+            for (int i = 0; i < types.length; i++) {
+                Object value = values.get(i);
+                if (value != null) {
+                    result.merge(types[i], Long.parseLong(value.toString()), Long::sum);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 批量查询尚未写回数据库的增量, 两个 hash 各一次 HMGET
+     *
+     * @return 行id -> 增量, 没有增量的id不在结果中
+     */
+    public Map<Long, Long> pending(CounterType type, Collection<Long> ids) {
+        Map<Long, Long> result = new HashMap<>();
+        if (ids.isEmpty()) {
+            return result;
+        }
+        List<Long> idList = new ArrayList<>(ids);
+        List<Object> fields = new ArrayList<>(idList.size());
+        for (Long id : idList) {
+            fields.add(type.field(id));
+        }
+        String key = RedisConstants.COUNTER_KEY + type.getTable();
+        for (String k : new String[]{key, key + FLUSHING_SUFFIX}) {
+            List<Object> values = stringRedisTemplate.opsForHash().multiGet(k, fields);
+            for (int i = 0; i < idList.size(); i++) {
+                Object value = values.get(i);
+                if (value != null) {
+                    result.merge(idList.get(i), Long.parseLong(value.toString()), Long::sum);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 定时写回, 集群内同一时间只有一个节点执行
+     */
+    @Scheduled(fixedDelayString = "${hmdp.counter.flush-millis:5000}")
+    public void flush() {
+        new SimpleRedisLock(RedisConstants.COUNTER_FLUSH_LOCK, stringRedisTemplate).runLocked(FLUSH_LOCK_SECONDS, () -> {
+            // 表名 -> 该表的任一计数列, 同一张表的表名、主键列、缓存前缀相同
+            Map<String, CounterType> tables = new LinkedHashMap<>();
+            for (CounterType type : CounterType.values()) {
+                tables.putIfAbsent(type.getTable(), type);
+            }
+            for (CounterType type : tables.values()) {
+                try {
+                    flushTable(type);
+                } catch (Exception e) {
+                    // flushing hash 保留, 下次继续用同一个批次id写回
+                    failed.increment();
+                    log.error("计数写回失败 {}", type.getTable(), e);
+                }
+            }
+            lastFlushMillis = System.currentTimeMillis();
+        });
+    }
+
+    /**
+     * 清理过期的批次记录
+     */
+    @Scheduled(cron = "0 30 4 * * ?")
+    public void purgeFlushRecords() {
+        counterMapper.deleteFlushBefore(LocalDateTime.now().minusDays(FLUSH_RECORD_DAYS));
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("increments", increments.sum());
+        m.put("flushes", flushes.sum());
+        m.put("flushedRows", flushedRows.sum());
+        m.put("replayed", replayed.sum());
+        m.put("failed", failed.sum());
+        m.put("lastFlushMillis", lastFlushMillis);
+        return m;
+    }
+
+    private void flushTable(CounterType tableType) {
+        String table = tableType.getTable();
+        String pendingKey = RedisConstants.COUNTER_KEY + table;
+        String flushingKey = pendingKey + FLUSHING_SUFFIX;
+        // 上次写回未完成时先处理遗留的批次
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(flushingKey))) {
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(pendingKey))) {
+                return;
+            }
+            // RENAME 之后的新增量进入新的 pending hash
+            stringRedisTemplate.rename(pendingKey, flushingKey);
+        }
+        stringRedisTemplate.opsForHash().putIfAbsent(flushingKey, FLUSH_ID_FIELD, UUID.randomUUID().toString(true));
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(flushingKey);
+        String flushId = (String) entries.remove(FLUSH_ID_FIELD);
+        // 列 -> 增量
+        Map<String, List<CounterDelta>> byColumn = new HashMap<>();
+        for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+            String field = entry.getKey().toString();
+            long delta = Long.parseLong(entry.getValue().toString());
+            if (delta == 0) {
+                continue;
+            }
+            int sep = field.indexOf(':');
+            byColumn.computeIfAbsent(field.substring(sep + 1), k -> new ArrayList<>())
+                    .add(new CounterDelta(Long.valueOf(field.substring(0, sep)), delta));
+        }
+        Boolean applied = transactionTemplate.execute(status -> {
+            if (counterMapper.insertFlush(flushId) == 0) {
+                return false;
+            }
+            if (tableType.isCreateMissing()) {
+                List<Long> ids = new ArrayList<>(idsOf(byColumn));
+                for (int i = 0; i < ids.size(); i += BATCH_SIZE) {
+                    counterMapper.insertMissing(table, tableType.getIdColumn(), ids.subList(i, Math.min(i + BATCH_SIZE, ids.size())));
+                }
+            }
+            for (Map.Entry<String, List<CounterDelta>> entry : byColumn.entrySet()) {
+                List<CounterDelta> deltas = entry.getValue();
+                for (int i = 0; i < deltas.size(); i += BATCH_SIZE) {
+                    counterMapper.addDeltas(table, tableType.getIdColumn(), entry.getKey(),
+                            deltas.subList(i, Math.min(i + BATCH_SIZE, deltas.size())));
+                }
+            }
+            return true;
+        });
+        stringRedisTemplate.delete(flushingKey);
+        if (Boolean.TRUE.equals(applied)) {
+            flushes.increment();
+            flushedRows.add(entries.size());
+        } else {
+            replayed.increment();
+            log.warn("计数批次 {} 已写回过, 跳过", flushId);
+        }
+        evictCache(tableType.getCachePrefix(), byColumn);
+    }
+
+    /**
+     * 写回后数据库的值已包含增量, 删除缓存中的旧值, 避免读到的计数回退
+     * 删除会经 {@link RedisConstants#CACHE_INVALIDATE_CHANNEL} 广播, 各节点同时摘除该key的 ETag 和响应体
+     */
+    private void evictCache(String prefix, Map<String, List<CounterDelta>> byColumn) {
+        for (Long id : idsOf(byColumn)) {
+            cacheClient.delete(prefix + id);
+        }
+    }
+
+    private static Set<Long> idsOf(Map<String, List<CounterDelta>> byColumn) {
+        Set<Long> ids = new LinkedHashSet<>();
+        byColumn.values().forEach(deltas -> deltas.forEach(d -> ids.add(d.getId())));
+        return ids;
+    }
+}
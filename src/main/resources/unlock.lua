@@ -0,0 +1,5 @@
+-- 锁中的标识与当前持有者一致时才删除, 比较和删除在一个脚本中原子执行
+if (redis.call('get', KEYS[1]) == ARGV[1]) then
+    return redis.call('del', KEYS[1])
+end
+return 0
@@ -1,13 +1,32 @@
 package com.hmdp;
 
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
 import com.hmdp.service.impl.ShopServiceImpl;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.SystemConstants;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.geo.Circle;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
 
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -20,6 +39,12 @@ class HmDianPingApplicationTests {
     @Resource
     private RedisIdWorker redisIdWorker;
 
+    @Resource
+    private CacheCodec cacheCodec;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
     private ExecutorService es = Executors.newFixedThreadPool(500);
 
 
@@ -44,4 +69,115 @@ class HmDianPingApplicationTests {
         System.out.println("time = " + (end - begin));
     }
 
+    @Test
+    void testCacheCodec() {
+        Shop shop = shopService.getById(1L);
+        Blog blog = new Blog().setId(1L).setTitle("探店").setImages(shop.getImages())
+                .setContent(StrUtil.repeat("生活就是一半烟火·一半诗意<br/>", 80));
+        for (Object value : new Object[]{shop, blog}) {
+            String json = JSONUtil.toJsonStr(value);
+            int rawBytes = json.getBytes(StandardCharsets.UTF_8).length;
+            byte[] encoded = cacheCodec.encode("bench:", json);
+            int rounds = 100000;
+            long begin = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                cacheCodec.encode("bench:", json);
+            }
+            long encodeNanos = (System.nanoTime() - begin) / rounds;
+            begin = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                cacheCodec.decode(encoded);
+            }
+            long decodeNanos = (System.nanoTime() - begin) / rounds;
+            System.out.println(value.getClass().getSimpleName() + " raw = " + rawBytes + " stored = " + encoded.length
+                    + " saved = " + (rawBytes - encoded.length)
+                    + " encode = " + encodeNanos + "ns decode = " + decodeNanos + "ns");
+        }
+    }
+
+    @Test
+    void testShopGeoIndex() {
+        int n = 50000;
+        long typeId = 9999L;
+        String key = RedisConstants.SHOP_GEO_KEY + typeId;
+        Random random = new Random(1);
+        List<Shop> shops = new ArrayList<>(n);
+        List<RedisGeoCommands.GeoLocation<String>> locations = new ArrayList<>(n);
+        for (int i = 1; i <= n; i++) {
+            double x = 120.0 + random.nextDouble() * 0.4;
+            double y = 30.1 + random.nextDouble() * 0.3;
+            shops.add(new Shop().setId((long) i).setTypeId(typeId).setX(x).setY(y));
+            locations.add(new RedisGeoCommands.GeoLocation<>(String.valueOf(i), new Point(x, y)));
+        }
+        ShopGeoIndex index = new ShopGeoIndex();
+        long begin = System.nanoTime();
+        index.rebuild(shops);
+        System.out.println("build " + n + " = " + (System.nanoTime() - begin) / 1000000 + "ms");
+        stringRedisTemplate.opsForGeo().add(key, locations);
+        try {
+            int rounds = 2000;
+            double[] xs = new double[rounds];
+            double[] ys = new double[rounds];
+            for (int i = 0; i < rounds; i++) {
+                xs[i] = 120.0 + random.nextDouble() * 0.4;
+                ys[i] = 30.1 + random.nextDouble() * 0.3;
+            }
+            RedisGeoCommands.GeoRadiusCommandArgs args = RedisGeoCommands.GeoRadiusCommandArgs.newGeoRadiusArgs()
+                    .includeDistance().sortAscending().limit(SystemConstants.DEFAULT_PAGE_SIZE);
+            int same = 0;
+            long localNanos = 0;
+            long redisNanos = 0;
+            for (int i = 0; i < rounds; i++) {
+                begin = System.nanoTime();
+                List<ShopGeoIndex.Hit> hits = index.search(typeId, xs[i], ys[i],
+                        SystemConstants.SHOP_NEARBY_RADIUS, SystemConstants.DEFAULT_PAGE_SIZE);
+                localNanos += System.nanoTime() - begin;
+                begin = System.nanoTime();
+                GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().radius(key,
+                        new Circle(new Point(xs[i], ys[i]), new Distance(SystemConstants.SHOP_NEARBY_RADIUS)), args);
+                redisNanos += System.nanoTime() - begin;
+                if (results != null && !hits.isEmpty() && !results.getContent().isEmpty()
+                        && results.getContent().get(0).getContent().getName().equals(String.valueOf(hits.get(0).getId()))) {
+                    same++;
+                }
+            }
+            System.out.println("local = " + localNanos / rounds / 1000 + "us redis = " + redisNanos / rounds / 1000
+                    + "us nearest same = " + same + "/" + rounds);
+        } finally {
+            stringRedisTemplate.delete(key);
+        }
+    }
+
+    @Test
+    void testUvMemory() {
+        String hllKey = RedisConstants.UV_KEY + "bench:hll";
+        String setKey = RedisConstants.UV_KEY + "bench:set";
+        int batch = 1000;
+        try {
+            int added = 0;
+            // 访客数都是 batch 的整数倍
+            for (int n : new int[]{1000, 10000, 100000, 1000000}) {
+                String[] members = new String[batch];
+                for (; added < n; added += batch) {
+                    for (int i = 0; i < batch; i++) {
+                        members[i] = "t:" + (added + i);
+                    }
+                    stringRedisTemplate.opsForHyperLogLog().add(hllKey, members);
+                    stringRedisTemplate.opsForSet().add(setKey, members);
+                }
+                long estimate = stringRedisTemplate.opsForHyperLogLog().size(hllKey);
+                System.out.println("visitors = " + n + " pfcount = " + estimate
+                        + " error = " + String.format("%.2f%%", Math.abs(estimate - n) * 100.0 / n)
+                        + " hll = " + memoryUsage(hllKey) + "B set = " + memoryUsage(setKey) + "B");
+            }
+        } finally {
+            stringRedisTemplate.delete(hllKey);
+            stringRedisTemplate.delete(setKey);
+        }
+    }
+
+    private Long memoryUsage(String key) {
+        return stringRedisTemplate.execute((RedisCallback<Long>) connection -> (Long) connection.execute("MEMORY",
+                "USAGE".getBytes(StandardCharsets.UTF_8), key.getBytes(StandardCharsets.UTF_8)));
+    }
 }